@@ -0,0 +1,55 @@
+(ns memento.bench
+  "Support functions for JMH benchmarks in bench/java, creating memoized functions
+  via the public API."
+  {:author "Rok Lenarčič"}
+  (:require [memento.base :as b]
+            [memento.core :as m]
+            [memento.config :as mc]
+            [memento.caffeine.config :as mcc])
+  (:import (memento.mount IMountPoint)))
+
+(def hit-conf {mc/type mc/caffeine})
+
+(def miss-conf {mc/type mc/caffeine mc/size< 10000})
+
+(defn cached-fn
+  "Memoized fn of any arity that returns number of arguments. If tagged? the
+  value is tagged with :user tag and the first argument as id."
+  [tagged? cache-conf]
+  (m/memo (if tagged?
+            (fn [& args] (m/with-tag-id (count args) :user (first args)))
+            (fn [& args] (count args)))
+          (cond-> {} tagged? (assoc mc/tags [:user]))
+          cache-conf))
+
+(defn multi-fn
+  "Memoized inc with a multi cache of given type (:tiered or :consulting), where the local
+  cache holds local-size entries and upstream is preloaded with keys 0 to upstream-size."
+  [type local-size upstream-size]
+  (let [local {mc/type mc/caffeine mc/size< local-size}
+        upstream (m/create {mc/type mc/caffeine})
+        f (m/memo inc {} (case type
+                           :tiered (m/tiered local upstream)
+                           :consulting (m/consulting local upstream)))]
+    (b/put-all upstream
+               (.segment ^IMountPoint f)
+               (into {} (map (fn [i] [[i] (inc i)])) (range upstream-size)))
+    f))
+
+(defn expiry-fn
+  "Memoized identity with fixed ttl (:fixed) or variable expiry from value meta (:variable)."
+  [kind]
+  (case kind
+    :fixed (m/memo (fn [x] [x]) {mc/type mc/caffeine mc/ttl [1 :h]})
+    :variable (m/memo (fn [x] (with-meta [x] {mc/ttl [1 :h]}))
+                      {mc/type mc/caffeine mcc/expiry mcc/meta-expiry})))
+
+(defn hot-fn
+  "Memoized identity in a Caffeine cache, with thread local L0 cache if l0? is true."
+  [l0?]
+  (m/memo identity (cond-> {mc/type mc/caffeine} l0? (assoc mcc/l0 true))))
+
+(defn striped-fn
+  "Memoized identity in a bounded Caffeine cache split into n stripes, 1 is a single cache."
+  [n]
+  (m/memo identity (cond-> {mc/type mc/caffeine mc/size< 100000} (< 1 n) (assoc mcc/stripes n))))
@@ -0,0 +1,25 @@
+package memento.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks once for each thread count in memento.bench.threads system property (default 1,4,8),
+ * with GC profiler, so allocation per operation is reported. Arguments are JMH command line options.
+ */
+public class BenchMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        for (String t : System.getProperty("memento.bench.threads", "1,4,8").split(",")) {
+            new Runner(new OptionsBuilder()
+                    .parent(cmd)
+                    .threads(Integer.parseInt(t.trim()))
+                    .addProfiler(GCProfiler.class)
+                    .build())
+                    .run();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package memento.bench;
+
+import clojure.lang.IFn;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hits and misses of a memoized function by arity, with and without tags.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachedFnBench {
+
+    @Param({"0", "1", "2", "4"})
+    public int arity;
+
+    @Param({"false", "true"})
+    public boolean tagged;
+
+    private IFn hitFn;
+    private IFn missFn;
+
+    @Setup
+    public void setup() {
+        hitFn = (IFn) Support.cachedFn.invoke(tagged, Support.hitConf);
+        missFn = (IFn) Support.cachedFn.invoke(tagged, Support.missConf);
+        Support.invoke(hitFn, arity, 1L);
+    }
+
+    @Benchmark
+    public Object hit() {
+        return Support.invoke(hitFn, arity, 1L);
+    }
+
+    @Benchmark
+    public Object miss() {
+        // zero arity has a single key, so it's always a hit
+        // random keys, as a shared counter would be contended by all threads
+        return Support.invoke(missFn, Math.max(arity, 1), ThreadLocalRandom.current().nextLong());
+    }
+}
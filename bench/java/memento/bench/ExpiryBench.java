@@ -0,0 +1,34 @@
+package memento.bench;
+
+import clojure.lang.IFn;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hits with fixed ttl compared to variable expiry, which reads expiry evaluated when the entry was stored.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpiryBench {
+
+    @Param({"fixed", "variable"})
+    public String expiry;
+
+    private IFn f;
+
+    @Setup
+    public void setup() {
+        f = (IFn) Support.expiryFn.invoke(Support.kw(expiry));
+        f.invoke(1L);
+    }
+
+    @Benchmark
+    public Object hit() {
+        return f.invoke(1L);
+    }
+}
@@ -0,0 +1,39 @@
+package memento.bench;
+
+import clojure.lang.IFn;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hits of a few hot keys, shared by all threads, with and without thread local L0 cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotKeyBench {
+
+    private static final int KEYS = 8;
+
+    @Param({"false", "true"})
+    public boolean l0;
+
+    private IFn f;
+
+    @Setup
+    public void setup() {
+        f = (IFn) Support.hotFn.invoke(l0);
+        for (long i = 0; i < KEYS; i++) {
+            f.invoke(i);
+        }
+    }
+
+    @Benchmark
+    public Object hit() {
+        return f.invoke((long) ThreadLocalRandom.current().nextInt(KEYS));
+    }
+}
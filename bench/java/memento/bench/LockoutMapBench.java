@@ -0,0 +1,60 @@
+package memento.bench;
+
+import clojure.lang.PersistentHashSet;
+import clojure.lang.PersistentVector;
+import memento.base.EntryMeta;
+import memento.base.LockoutMap;
+import memento.base.LockoutTag;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lockout checks on reads of tagged entries while other threads invalidate tags.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockoutMapBench {
+
+    private static final int IDS = 1024;
+
+    private final EntryMeta[] entries = new EntryMeta[IDS];
+    private final Object[] tagIds = new Object[IDS];
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < IDS; i++) {
+            tagIds[i] = PersistentVector.create(Support.kw("user"), (long) i);
+            entries[i] = new EntryMeta(i, false, PersistentHashSet.create(tagIds[i]));
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(7)
+    public boolean await() throws InterruptedException {
+        return LockoutMap.awaitLockout(entries[ThreadLocalRandom.current().nextInt(IDS)]);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void lockout() {
+        Iterable<Object> ids = Collections.singletonList(tagIds[ThreadLocalRandom.current().nextInt(IDS)]);
+        LockoutTag tag = new LockoutTag();
+        LockoutMap.INSTANCE.startLockout(ids, tag);
+        LockoutMap.INSTANCE.endLockout(ids, tag);
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    public boolean awaitNoLockouts() throws InterruptedException {
+        return LockoutMap.awaitLockout(entries[ThreadLocalRandom.current().nextInt(IDS)]);
+    }
+}
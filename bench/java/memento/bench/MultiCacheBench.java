@@ -0,0 +1,43 @@
+package memento.bench;
+
+import clojure.lang.IFn;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tiered and consulting caches, with hits in the local cache and local misses that hit upstream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiCacheBench {
+
+    private static final int UPSTREAM_SIZE = 1 << 16;
+
+    @Param({"tiered", "consulting"})
+    public String type;
+
+    private IFn f;
+
+    @Setup
+    public void setup() {
+        f = (IFn) Support.multiFn.invoke(Support.kw(type), 1024L, (long) UPSTREAM_SIZE);
+        f.invoke(0L);
+    }
+
+    @Benchmark
+    public Object localHit() {
+        return f.invoke(0L);
+    }
+
+    @Benchmark
+    public Object upstreamHit() {
+        // local cache holds 1/64 of the keys, so most calls miss locally
+        return f.invoke((long) ThreadLocalRandom.current().nextInt(UPSTREAM_SIZE));
+    }
+}
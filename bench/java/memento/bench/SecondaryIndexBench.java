@@ -0,0 +1,49 @@
+package memento.bench;
+
+import clojure.lang.PersistentHashSet;
+import clojure.lang.PersistentVector;
+import memento.base.CacheKey;
+import memento.base.EntryMeta;
+import memento.caffeine.SecondaryIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding tagged entries to SecondaryIndex and draining keys of a tag id.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecondaryIndexBench {
+
+    private static final int IDS = 1024;
+
+    private final SecondaryIndex index = new SecondaryIndex(4);
+    private final Object[] tagIds = new Object[IDS];
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < IDS; i++) {
+            tagIds[i] = PersistentVector.create(Support.kw("user"), (long) i);
+        }
+    }
+
+    @Benchmark
+    public void add() {
+        int i = ThreadLocalRandom.current().nextInt(IDS);
+        index.add(new CacheKey("f", (long) i), new EntryMeta(i, false, PersistentHashSet.create(tagIds[i])));
+    }
+
+    @Benchmark
+    public void addDrain(Blackhole bh) {
+        int i = ThreadLocalRandom.current().nextInt(IDS);
+        index.add(new CacheKey("f", (long) i), new EntryMeta(i, false, PersistentHashSet.create(tagIds[i])));
+        index.drainKeys(tagIds[i], bh::consume);
+    }
+}
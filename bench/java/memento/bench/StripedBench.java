@@ -0,0 +1,35 @@
+package memento.bench;
+
+import clojure.lang.IFn;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misses of a bounded cache, where every call loads and inserts a new key, single and striped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StripedBench {
+
+    @Param({"1", "4", "16"})
+    public long stripes;
+
+    private IFn f;
+
+    @Setup
+    public void setup() {
+        f = (IFn) Support.stripedFn.invoke(stripes);
+    }
+
+    @Benchmark
+    public Object miss() {
+        // random keys, as a shared counter would be contended by all threads
+        return f.invoke(ThreadLocalRandom.current().nextLong());
+    }
+}
@@ -0,0 +1,49 @@
+package memento.bench;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+import clojure.lang.Keyword;
+
+/**
+ * Access to memento.bench Clojure support functions.
+ */
+final class Support {
+
+    static {
+        Clojure.var("clojure.core", "require").invoke(Clojure.read("memento.bench"));
+    }
+
+    static final IFn cachedFn = Clojure.var("memento.bench", "cached-fn");
+    static final IFn multiFn = Clojure.var("memento.bench", "multi-fn");
+    static final IFn expiryFn = Clojure.var("memento.bench", "expiry-fn");
+    static final IFn hotFn = Clojure.var("memento.bench", "hot-fn");
+    static final IFn stripedFn = Clojure.var("memento.bench", "striped-fn");
+    static final Object hitConf = ((IDeref) Clojure.var("memento.bench", "hit-conf")).deref();
+    static final Object missConf = ((IDeref) Clojure.var("memento.bench", "miss-conf")).deref();
+
+    private Support() {
+    }
+
+    static Keyword kw(String name) {
+        return Keyword.intern(name);
+    }
+
+    /**
+     * Invokes f with arity number of args, first arg being x.
+     */
+    static Object invoke(IFn f, int arity, Object x) {
+        switch (arity) {
+            case 0:
+                return f.invoke();
+            case 1:
+                return f.invoke(x);
+            case 2:
+                return f.invoke(x, 2L);
+            case 3:
+                return f.invoke(x, 2L, 3L);
+            default:
+                return f.invoke(x, 2L, 3L, 4L);
+        }
+    }
+}
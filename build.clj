@@ -1,6 +1,7 @@
 (ns build
   (:refer-clojure :exclude [test])
-  (:require [clojure.tools.build.api :as b] ; for b/git-count-revs
+  (:require [clojure.string :as str]
+            [clojure.tools.build.api :as b] ; for b/git-count-revs
             [org.corfield.build :as bb]))
 
 (def lib 'org.clojars.roklenarcic/memento)
@@ -20,6 +21,26 @@
       b/javac)
   opts)
 
+(def bench-class-dir "target/bench-classes")
+
+(defn bench
+  "Compile and run JMH benchmarks in bench/java.
+
+  :args are JMH command line options, e.g. [\"CachedFnBench\" \"-p\" \"arity=1\"],
+  :threads are thread counts to run each benchmark with, defaults to [1 4 8]."
+  [{:keys [args threads] :or {threads [1 4 8]} :as opts}]
+  (compile-java opts)
+  (let [basis (b/create-basis {:aliases [:bench]})]
+    (b/javac {:basis basis
+              :src-dirs ["bench/java"]
+              :class-dir bench-class-dir
+              :javac-opts ["-source" "11" "-target" "11"]})
+    (b/process (b/java-command {:basis basis
+                                :main 'memento.bench.BenchMain
+                                :java-opts [(str "-Dmemento.bench.threads=" (str/join "," threads))]
+                                :main-args (mapv str args)})))
+  opts)
+
 (defn test "Run the tests." [opts]
   (compile-java opts)
   (bb/run-tests opts))
@@ -0,0 +1,13 @@
+package memento.base;
+
+/**
+ * Encodes cached values into compact bytes and back, for caches that compress large values.
+ */
+public interface Codec {
+    /**
+     * Returns encoded value or null if the value cannot be encoded, in which case it's stored as is.
+     */
+    byte[] encode(Object v);
+
+    Object decode(byte[] bytes);
+}
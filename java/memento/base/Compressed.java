@@ -0,0 +1,39 @@
+package memento.base;
+
+/**
+ * A cached value stored in encoded form, decoded on every read.
+ */
+public class Compressed {
+
+    private final byte[] bytes;
+    private final Codec codec;
+
+    public Compressed(byte[] bytes, Codec codec) {
+        this.bytes = bytes;
+        this.codec = codec;
+    }
+
+    public Object decode() {
+        return codec.decode(bytes);
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the stored object with its value decoded, copying EntryMeta if needed.
+     */
+    public static Object expand(Object stored) {
+        if (stored instanceof Compressed) {
+            return ((Compressed) stored).decode();
+        }
+        if (stored instanceof EntryMeta && ((EntryMeta) stored).getV() instanceof Compressed) {
+            EntryMeta em = (EntryMeta) stored;
+            EntryMeta ret = new EntryMeta(em);
+            ret.setV(((Compressed) em.getV()).decode());
+            return ret;
+        }
+        return stored;
+    }
+}
@@ -0,0 +1,76 @@
+package memento.base;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch of hash frequencies, which is periodically halved so it follows recent traffic.
+ * Halving is spread over the following increments, a chunk at a time, so no single caller pays for the whole table.
+ */
+public class CountMinSketch {
+
+    private static final int DEPTH = 4;
+    private static final int CHUNK = 64;
+
+    private final AtomicLongArray table;
+    private final int mask;
+    private final long resetAt;
+    private final AtomicLong additions = new AtomicLong();
+    // next index to halve, table length or more when not halving
+    private final AtomicInteger cursor;
+    private volatile boolean aged;
+
+    /**
+     * @param width width of the table, rounded up to a power of 2, counts are halved after 10 times width additions
+     */
+    public CountMinSketch(int width) {
+        int w = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        this.table = new AtomicLongArray(w * DEPTH);
+        this.cursor = new AtomicInteger(w * DEPTH);
+        this.mask = w - 1;
+        this.resetAt = 10L * w;
+    }
+
+    /**
+     * Increments count of the hash, returns its estimated count.
+     */
+    public long increment(int hash) {
+        long min = Long.MAX_VALUE;
+        long h = spread(hash);
+        for (int i = 0; i < DEPTH; i++) {
+            int idx = i * (mask + 1) + (int) ((h >>> (i * 16)) & mask);
+            min = Math.min(min, table.incrementAndGet(idx));
+        }
+        int len = table.length();
+        int c = cursor.get();
+        if (c < len) {
+            // halving in progress, each increment halves the next chunk
+            int start = cursor.getAndAdd(CHUNK);
+            for (int i = start; i < Math.min(start + CHUNK, len); i++) {
+                table.getAndUpdate(i, x -> x >>> 1);
+            }
+        } else if (additions.incrementAndGet() >= resetAt && cursor.compareAndSet(c, 0)) {
+            additions.set(0);
+            aged = true;
+        }
+        return min;
+    }
+
+    /**
+     * Returns true once after each halving.
+     */
+    public boolean aged() {
+        if (aged) {
+            aged = false;
+            return true;
+        }
+        return false;
+    }
+
+    private static long spread(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+}
@@ -0,0 +1,114 @@
+package memento.base;
+
+import clojure.lang.RT;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Codec that uses Java serialization, compressed with Deflater. Strings and byte arrays are written directly,
+ * without serialization overhead. Values that aren't serializable, or that don't deserialize back, are not encoded.
+ * <p>
+ * Classes are resolved with Clojure's class loader, so records and types defined at runtime can be decoded.
+ */
+public class DeflateCodec implements Codec {
+
+    private static final byte SERIALIZED = 0;
+    private static final byte STRING = 1;
+    private static final byte BYTES = 2;
+
+    private final int level;
+
+    /**
+     * @param level Deflater compression level, 1 (fastest) to 9 (smallest)
+     */
+    public DeflateCodec(int level) {
+        this.level = level;
+    }
+
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    @Override
+    public byte[] encode(Object v) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(level);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bos, deflater)) {
+            if (v instanceof String) {
+                out.write(STRING);
+                out.write(((String) v).getBytes(StandardCharsets.UTF_8));
+            } else if (v instanceof byte[]) {
+                out.write(BYTES);
+                out.write((byte[]) v);
+            } else {
+                out.write(SERIALIZED);
+                ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(v);
+                oos.flush();
+            }
+        } catch (IOException e) {
+            // NotSerializableException and friends
+            return null;
+        } finally {
+            deflater.end();
+        }
+        byte[] bytes = bos.toByteArray();
+        if (!(v instanceof String || v instanceof byte[])) {
+            // a value that serializes but doesn't deserialize would make every hit fail, store it as it is instead
+            try {
+                decode(bytes);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+        try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+            int type = in.read();
+            switch (type) {
+                case STRING:
+                    return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                case BYTES:
+                    return in.readAllBytes();
+                default:
+                    return new ClojureObjectInputStream(in).readObject();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Cannot decode cached value", e);
+        }
+    }
+
+    private static class ClojureObjectInputStream extends ObjectInputStream {
+
+        ClojureObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                // also finds classes defined by any DynamicClassLoader, e.g. records evaluated at the REPL
+                return RT.classForName(desc.getName(), false, RT.baseLoader());
+            } catch (Exception e) {
+                // primitive types and classes only visible to the default loader
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
@@ -1,27 +1,62 @@
 package memento.base;
 
 import clojure.lang.IPersistentSet;
+import clojure.lang.ITransientSet;
 import clojure.lang.PersistentHashSet;
+import clojure.lang.RT;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Objects;
 
+/**
+ * Wrapper of a cached value with tag idents and flags.
+ * <p>
+ * Tag idents are kept compact: no field value for none, the ident itself for one, and a flat array
+ * for more, so they can be iterated with identCount and ident without allocation. The array grows by doubling,
+ * and above MAX_SCAN idents a hash set is kept for duplicate checks, so adding idents one by one stays linear.
+ * The set returned by getTagIdents is created on demand.
+ */
 public class EntryMeta {
 
     public static final Object absent = new Object();
+    public static final int MAX_SCAN = 8;
     public static final EntryMeta NIL = new EntryMeta(null, false, null);
 
+    /**
+     * Returns the cached value of a stored object, unwrapping EntryMeta and decoding a Compressed value.
+     */
     public static Object unwrap(Object o) {
-        return o instanceof EntryMeta ? ((EntryMeta) o).getV() : o;
+        Object v = o instanceof EntryMeta ? ((EntryMeta) o).getV() : o;
+        return v instanceof Compressed ? ((Compressed) v).decode() : v;
     }
 
     private Object v;
     private boolean noCache;
-    private IPersistentSet tagIdents;
+    // null, a single ident, or an Object[] with identCount distinct idents
+    private Object idents;
+    private int identCount;
+    // idents, for duplicate checks above MAX_SCAN idents, created on demand
+    private HashSet<Object> identSet;
+    private long loadNanos;
+    private long expireAfterWrite = -1;
+    private long expireAfterRead = -1;
 
     public EntryMeta(Object v, boolean noCache, IPersistentSet tagIdents) {
         this.v = v;
         this.noCache = noCache;
-        this.tagIdents = tagIdents == null ? PersistentHashSet.EMPTY : tagIdents;
+        setTagIdents(tagIdents);
+    }
+
+    /**
+     * Copy of the entry, without evaluated expiry.
+     */
+    public EntryMeta(EntryMeta other) {
+        this.v = other.v;
+        this.noCache = other.noCache;
+        this.idents = other.idents instanceof Object[] ? ((Object[]) other.idents).clone() : other.idents;
+        this.identCount = other.identCount;
+        this.loadNanos = other.loadNanos;
     }
 
     public Object getV() {
@@ -40,12 +75,106 @@ public class EntryMeta {
         this.noCache = noCache;
     }
 
+    public int identCount() {
+        return identCount;
+    }
+
+    /**
+     * Tag ident at index, index must be less than identCount.
+     */
+    public Object ident(int index) {
+        Object i = idents;
+        return i instanceof Object[] ? ((Object[]) i)[index] : i;
+    }
+
+    /**
+     * Adds tag ident, if not already present.
+     */
+    public void addTagIdent(Object ident) {
+        int n = identCount;
+        if (n == 0) {
+            idents = ident;
+            identCount = 1;
+            return;
+        }
+        if (n == 1) {
+            if (!Objects.equals(idents, ident)) {
+                idents = new Object[]{idents, ident, null, null};
+                identCount = 2;
+            }
+            return;
+        }
+        Object[] arr = (Object[]) idents;
+        if (n > MAX_SCAN) {
+            if (identSet == null) {
+                identSet = new HashSet<>(Arrays.asList(arr).subList(0, n));
+            }
+            if (!identSet.add(ident)) {
+                return;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                if (Objects.equals(arr[i], ident)) {
+                    return;
+                }
+            }
+        }
+        if (n == arr.length) {
+            arr = Arrays.copyOf(arr, n * 2);
+            idents = arr;
+        }
+        arr[n] = ident;
+        identCount = n + 1;
+    }
+
     public IPersistentSet getTagIdents() {
-        return tagIdents;
+        int n = identCount();
+        if (n == 0) {
+            return PersistentHashSet.EMPTY;
+        }
+        ITransientSet ret = (ITransientSet) PersistentHashSet.EMPTY.asTransient();
+        for (int i = 0; i < n; i++) {
+            ret = (ITransientSet) ret.conj(ident(i));
+        }
+        return (IPersistentSet) ret.persistent();
     }
 
     public void setTagIdents(IPersistentSet tagIdents) {
-        this.tagIdents = tagIdents;
+        int n = tagIdents == null ? 0 : tagIdents.count();
+        this.identSet = null;
+        this.identCount = n;
+        // set elements are already distinct
+        this.idents = n == 0 ? null : n == 1 ? tagIdents.seq().first() : RT.seqToArray(tagIdents.seq());
+    }
+
+    /**
+     * Time it took to load the value, if recorded by the cache, otherwise 0.
+     */
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+
+    public void setLoadNanos(long loadNanos) {
+        this.loadNanos = loadNanos;
+    }
+
+    /**
+     * Expiry after write in nanoseconds, as evaluated when the entry was stored, -1 if not evaluated.
+     */
+    public long getExpireAfterWrite() {
+        return expireAfterWrite;
+    }
+
+    /**
+     * Expiry after read in nanoseconds, as evaluated when the entry was stored, -1 if reads keep current expiry.
+     */
+    public long getExpireAfterRead() {
+        return expireAfterRead;
+    }
+
+    public void setExpiry(long expireAfterWrite, long expireAfterRead) {
+        this.expireAfterWrite = expireAfterWrite;
+        this.expireAfterRead = expireAfterRead;
     }
 
     @Override
@@ -53,12 +182,12 @@ public class EntryMeta {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         EntryMeta entryMeta = (EntryMeta) o;
-        return noCache == entryMeta.noCache && Objects.equals(v, entryMeta.v) && tagIdents.equals(entryMeta.tagIdents);
+        return noCache == entryMeta.noCache && Objects.equals(v, entryMeta.v) && getTagIdents().equals(entryMeta.getTagIdents());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(v, noCache, tagIdents);
+        return Objects.hash(v, noCache, getTagIdents());
     }
 
     @Override
@@ -66,7 +195,7 @@ public class EntryMeta {
         return "EntryMeta{" +
                 "v=" + v +
                 ", noCache=" + noCache +
-                ", tagIdents=" + tagIdents +
+                ", tagIdents=" + getTagIdents() +
                 '}';
     }
 }
@@ -32,6 +32,22 @@ public interface ICache {
      */
     Object cached(Segment segment, ISeq args);
 
+    /**
+     * Return the cache value, same as cached, but with precomputed key.
+     * <p>
+     * The key is a CacheKey of segment ID and args transformed by segment's key-fn (see Segment.cacheKey),
+     * multi-tier caches use this to calculate the key only once. Implementations that have their own
+     * key transformation should apply it to this key's args. Default implementation ignores the key.
+     *
+     * @param segment
+     * @param args
+     * @param key
+     * @return
+     */
+    default Object cached(Segment segment, ISeq args, CacheKey key) {
+        return cached(segment, args);
+    }
+
     /**
      * Return cached value if present (and available immediately) in cache or memento.base/absent otherwise.
      *
@@ -41,6 +57,33 @@ public interface ICache {
      */
     Object ifCached(Segment segment, ISeq args);
 
+    /**
+     * Return cached value if present, same as ifCached, but with precomputed key. See cached.
+     *
+     * @param segment
+     * @param args
+     * @param key
+     * @return
+     */
+    default Object ifCached(Segment segment, ISeq args, CacheKey key) {
+        return ifCached(segment, args);
+    }
+
+    /**
+     * Return false if the cache definitely doesn't have the entry for the key, so lookups can be skipped.
+     * <p>
+     * Used by multi-tier caches to avoid probing expensive upstream caches. The default implementation
+     * returns true.
+     *
+     * @param segment
+     * @param args
+     * @param key     key as with cached
+     * @return
+     */
+    default boolean mightContain(Segment segment, ISeq args, CacheKey key) {
+        return true;
+    }
+
     /**
      * Invalidate all the entries linked a mount's single arg list, return Cache
      *
@@ -0,0 +1,188 @@
+package memento.base;
+
+import clojure.lang.IFn;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ISeq;
+import clojure.lang.PersistentArrayMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Cache that defers creation of the backing Cache until it is first needed.
+ * <p>
+ * Entries added before the backing cache exists (e.g. seed maps from bind) are queued and
+ * loaded when the backing cache is created. Operations that would have no effect on an empty
+ * cache (invalidations, if-cached lookups, asMap) do not force creation.
+ */
+public class LazyCache implements ICache {
+
+    private final IPersistentMap conf;
+    private final IFn factory;
+    private volatile ICache delegate;
+    private List<Object[]> pending = new ArrayList<>();
+
+    /**
+     * @param conf    conf of the backing cache, returned by conf()
+     * @param factory a function of no arguments that creates the backing cache
+     */
+    public LazyCache(IPersistentMap conf, IFn factory) {
+        this.conf = conf;
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the backing cache, creating it if needed.
+     *
+     * @return
+     */
+    public ICache realize() {
+        ICache c = delegate;
+        if (c == null) {
+            synchronized (this) {
+                c = delegate;
+                if (c == null) {
+                    c = (ICache) factory.invoke();
+                    for (Object[] p : pending) {
+                        c.addEntries((Segment) p[0], (IPersistentMap) p[1]);
+                    }
+                    pending = null;
+                    delegate = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    public boolean isRealized() {
+        return delegate != null;
+    }
+
+    /**
+     * Returns backing cache if it exists or has pending entries, null if the cache is
+     * known to be empty.
+     */
+    private ICache existing() {
+        ICache c = delegate;
+        if (c != null) {
+            return c;
+        }
+        synchronized (this) {
+            if (delegate == null && pending.isEmpty()) {
+                return null;
+            }
+        }
+        return realize();
+    }
+
+    @Override
+    public IPersistentMap conf() {
+        return conf;
+    }
+
+    @Override
+    public Object cached(Segment segment, ISeq args) {
+        return realize().cached(segment, args);
+    }
+
+    @Override
+    public Object cached(Segment segment, ISeq args, CacheKey key) {
+        return realize().cached(segment, args, key);
+    }
+
+    @Override
+    public Object ifCached(Segment segment, ISeq args) {
+        ICache c = existing();
+        return c == null ? EntryMeta.absent : c.ifCached(segment, args);
+    }
+
+    @Override
+    public Object ifCached(Segment segment, ISeq args, CacheKey key) {
+        ICache c = existing();
+        return c == null ? EntryMeta.absent : c.ifCached(segment, args, key);
+    }
+
+    @Override
+    public boolean mightContain(Segment segment, ISeq args, CacheKey key) {
+        ICache c = existing();
+        return c != null && c.mightContain(segment, args, key);
+    }
+
+    @Override
+    public ICache invalidate(Segment segment) {
+        ICache c = existing();
+        if (c != null) {
+            c.invalidate(segment);
+        }
+        return this;
+    }
+
+    @Override
+    public ICache invalidate(Segment segment, ISeq args) {
+        ICache c = existing();
+        if (c != null) {
+            c.invalidate(segment, args);
+        }
+        return this;
+    }
+
+    @Override
+    public ICache invalidateAll() {
+        if (delegate == null) {
+            synchronized (this) {
+                if (delegate == null) {
+                    pending.clear();
+                    return this;
+                }
+            }
+        }
+        delegate.invalidateAll();
+        return this;
+    }
+
+    @Override
+    public ICache invalidateIds(Iterable<Object> id) {
+        ICache c = existing();
+        if (c != null) {
+            c.invalidateIds(id);
+        }
+        return this;
+    }
+
+    @Override
+    public ICache addEntries(Segment segment, IPersistentMap argsToVals) {
+        if (argsToVals.count() == 0) {
+            return this;
+        }
+        if (delegate == null) {
+            synchronized (this) {
+                if (delegate == null) {
+                    pending.add(new Object[]{segment, argsToVals});
+                    return this;
+                }
+            }
+        }
+        delegate.addEntries(segment, argsToVals);
+        return this;
+    }
+
+    @Override
+    public IPersistentMap asMap() {
+        ICache c = existing();
+        return c == null ? PersistentArrayMap.EMPTY : c.asMap();
+    }
+
+    @Override
+    public IPersistentMap asMap(Segment segment) {
+        ICache c = existing();
+        return c == null ? PersistentArrayMap.EMPTY : c.asMap(segment);
+    }
+
+    @Override
+    public String toString() {
+        return "LazyCache{" +
+                "conf=" + conf +
+                ", delegate=" + delegate +
+                '}';
+    }
+}
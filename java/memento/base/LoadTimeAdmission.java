@@ -0,0 +1,106 @@
+package memento.base;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides if a loaded value is worth caching based on how long the load took.
+ * <p>
+ * With a fixed threshold, loads that took at least the threshold are admitted. With a target fraction, load times
+ * are recorded in a histogram with 4 buckets per power of 2, and the threshold is periodically set to the
+ * load time of the slowest fraction of loads, within min and max. The histogram is halved periodically, so the
+ * threshold follows recent loads. Until enough loads are recorded, the threshold is min.
+ */
+public class LoadTimeAdmission {
+
+    private static final int BUCKETS = 64 * 4;
+    private static final int RECALC_EVERY = 256;
+    private static final long HALVE_AT = 1 << 16;
+
+    private final double fraction;
+    private final long min;
+    private final long max;
+    private final AtomicLongArray histogram;
+    private final AtomicLong count;
+    private volatile long threshold;
+
+    /**
+     * Admits loads that took at least threshold.
+     */
+    public LoadTimeAdmission(long threshold) {
+        this.fraction = 0;
+        this.min = threshold;
+        this.max = threshold;
+        this.threshold = threshold;
+        this.histogram = null;
+        this.count = null;
+    }
+
+    /**
+     * Admits the slowest fraction of loads, with threshold between min and max.
+     */
+    public LoadTimeAdmission(double fraction, long min, long max) {
+        this.fraction = fraction;
+        this.min = min;
+        this.max = Math.max(min, max);
+        this.threshold = min;
+        this.histogram = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < 4) {
+            return (int) Math.max(nanos, 0);
+        }
+        int e = 63 - Long.numberOfLeadingZeros(nanos);
+        return 4 * e + (int) ((nanos >>> (e - 2)) & 3);
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        int e = bucket / 4;
+        return (4L + bucket % 4) << (e - 2);
+    }
+
+    public boolean admit(long nanos) {
+        if (histogram != null) {
+            record(nanos);
+        }
+        return nanos >= threshold;
+    }
+
+    private void record(long nanos) {
+        histogram.incrementAndGet(bucket(nanos));
+        long c = count.incrementAndGet();
+        if (c % RECALC_EVERY == 0) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += histogram.get(i);
+            }
+            long keep = (long) Math.ceil(total * fraction);
+            long sum = 0;
+            int i = BUCKETS - 1;
+            for (; i > 0; i--) {
+                sum += histogram.get(i);
+                if (sum >= keep) {
+                    break;
+                }
+            }
+            threshold = Math.max(min, Math.min(max, lowerBound(i)));
+            if (c >= HALVE_AT && count.compareAndSet(c, c / 2)) {
+                for (int j = 0; j < BUCKETS; j++) {
+                    histogram.getAndUpdate(j, x -> x >>> 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Current threshold in nanoseconds.
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+}
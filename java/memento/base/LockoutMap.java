@@ -1,9 +1,8 @@
 package memento.base;
 
-import clojure.lang.IPersistentSet;
-import clojure.lang.ISeq;
 import clojure.lang.ITransientMap;
 import clojure.lang.PersistentHashMap;
+import memento.jfr.LockoutEvent;
 
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicReference;
@@ -36,6 +35,10 @@ public class LockoutMap {
      * @return
      */
     public void startLockout(Iterable<Object> tagsAndIds, LockoutTag tag) {
+        LockoutEvent event = LockoutEvent.start();
+        if (event != null) {
+            tag.setEvent(event);
+        }
         PersistentHashMap oldMap;
         PersistentHashMap newv;
         do {
@@ -72,6 +75,10 @@ public class LockoutMap {
             listeners.forEach(l -> l.endLockout(tagsAndIds, tag));
         } finally {
             tag.getLatch().countDown();
+            LockoutEvent event = tag.getEvent();
+            if (event != null) {
+                event.end(tag.getId(), tagsAndIds);
+            }
         }
     }
 
@@ -91,17 +98,16 @@ public class LockoutMap {
      */
     public static boolean awaitLockout(Object promiseValue) throws InterruptedException {
         if (promiseValue instanceof EntryMeta) {
-            IPersistentSet idents = ((EntryMeta) promiseValue).getTagIdents();
-            if (idents.count() != 0) {
+            EntryMeta e = (EntryMeta) promiseValue;
+            int n = e.identCount();
+            if (n != 0) {
                 PersistentHashMap invalidations = LockoutMap.INSTANCE.m.get();
                 if (invalidations.isEmpty()) {
                     return false;
                 }
-                ISeq identSeq = ((EntryMeta) promiseValue).getTagIdents().seq();
                 boolean ret = false;
-                while (identSeq != null) {
-                    ret |= awaitMarker(invalidations, identSeq.first());
-                    identSeq = identSeq.next();
+                for (int i = 0; i < n; i++) {
+                    ret |= awaitMarker(invalidations, e.ident(i));
                 }
                 return ret;
             }
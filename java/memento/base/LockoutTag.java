@@ -1,5 +1,7 @@
 package memento.base;
 
+import memento.jfr.LockoutEvent;
+
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
@@ -7,6 +9,7 @@ import java.util.concurrent.CountDownLatch;
 public class LockoutTag {
     private UUID id;
     private CountDownLatch latch;
+    private volatile LockoutEvent event;
 
     public LockoutTag(UUID id) {
         this.id = id;
@@ -25,6 +28,14 @@ public class LockoutTag {
         return latch;
     }
 
+    LockoutEvent getEvent() {
+        return event;
+    }
+
+    void setEvent(LockoutEvent event) {
+        this.event = event;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,58 @@
+package memento.base;
+
+import clojure.lang.RT;
+import clojure.lang.Var;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Access to the population mode of the current scope, the memento.base/*populate* var:
+ * - true, loaded values are cached
+ * - false, existing entries are used, but loaded values are not cached
+ * - a Map, existing entries are used, loaded values are cached in the map, a layer local to the scope
+ * <p>
+ * Scopes that bind the var call enter and exit, so while no scope is active anywhere, mode is a
+ * volatile read instead of a thread binding lookup.
+ */
+public class Population {
+
+    private static final Var POPULATE = RT.var("memento.base", "*populate*");
+    private static final AtomicInteger scopes = new AtomicInteger();
+
+    private Population() {
+    }
+
+    /**
+     * Returns the population mode, true, false or a Map of CacheKey to value.
+     */
+    public static Object mode() {
+        return scopes.get() == 0 || !POPULATE.isBound() ? Boolean.TRUE : POPULATE.deref();
+    }
+
+    /**
+     * Called when a scope binding the var starts.
+     */
+    public static void enter() {
+        scopes.incrementAndGet();
+    }
+
+    /**
+     * Called when a scope binding the var ends.
+     */
+    public static void exit() {
+        scopes.decrementAndGet();
+    }
+
+    public static boolean isPopulating() {
+        return mode() == Boolean.TRUE;
+    }
+
+    /**
+     * Returns scope local layer or null.
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<CacheKey, Object> layer(Object mode) {
+        return mode instanceof Map ? (Map<CacheKey, Object>) mode : null;
+    }
+}
@@ -2,6 +2,7 @@ package memento.base;
 
 import clojure.lang.IFn;
 import clojure.lang.IPersistentMap;
+import clojure.lang.ISeq;
 
 import java.util.Objects;
 
@@ -54,6 +55,16 @@ public class Segment {
         return Objects.hash(f, keyFn, id);
     }
 
+    /**
+     * Returns the key for the args, without any cache specific transformations.
+     *
+     * @param args
+     * @return
+     */
+    public CacheKey cacheKey(ISeq args) {
+        return new CacheKey(id, keyFn.invoke(args));
+    }
+
     public Segment withFn(IFn newF) {
         return new Segment(newF, keyFn, id, conf);
     }
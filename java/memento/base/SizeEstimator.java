@@ -0,0 +1,224 @@
+package memento.base;
+
+import clojure.lang.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Fast approximation of retained heap size of common Clojure and Java data, assuming a 64-bit JVM
+ * with compressed references.
+ * <p>
+ * Collections larger than SAMPLE elements are estimated by measuring the first SAMPLE elements
+ * and extrapolating. Nesting deeper than MAX_DEPTH is counted as a reference only. Unrealized lazy sequences
+ * are not realized. Unknown objects are counted as an object header. Interned objects (keywords, small numbers,
+ * booleans) are not counted, as they're shared.
+ */
+public class SizeEstimator {
+
+    public static final int SAMPLE = 32;
+    public static final int MAX_DEPTH = 16;
+
+    private static final int HEADER = 12;
+    private static final int REF = 4;
+    private static final int ARRAY_HEADER = 16;
+
+    /**
+     * Overhead of an entry in the cache: Caffeine's node and the CacheKey
+     */
+    public static final int ENTRY_OVERHEAD = 64 + 24;
+
+    private SizeEstimator() {
+    }
+
+    /**
+     * Estimated size of a cache entry in bytes, key args and value included.
+     */
+    public static int entryWeight(Object args, Object value) {
+        long size = ENTRY_OVERHEAD + estimate(args) + estimate(value);
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    /**
+     * Estimated retained size of the object in bytes.
+     */
+    public static long estimate(Object o) {
+        return estimate(o, 0);
+    }
+
+    /**
+     * Returns true if estimated size of the object is at least the given bytes. Strings, primitive arrays and
+     * collections with at least a reference per byte needed are decided without estimating their elements.
+     */
+    public static boolean atLeast(Object o, long bytes) {
+        if (o instanceof String) {
+            return 24 + align(ARRAY_HEADER + ((String) o).length()) >= bytes;
+        } else if (o != null && o.getClass().isArray() && o.getClass().getComponentType().isPrimitive()) {
+            return array(o, 0) >= bytes;
+        }
+        int n = o instanceof Counted ? ((Counted) o).count()
+                : o instanceof Collection ? ((Collection<?>) o).size()
+                : o instanceof Map ? ((Map<?, ?>) o).size() : 0;
+        return (long) REF * n >= bytes || estimate(o) >= bytes;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static long estimate(Object o, int depth) {
+        if (o == null || o instanceof Keyword || o instanceof Boolean || o instanceof Var) {
+            return 0;
+        }
+        if (depth > MAX_DEPTH) {
+            return 0;
+        }
+        int d = depth + 1;
+        if (o instanceof String) {
+            String s = (String) o;
+            // String with a LATIN1 byte array
+            return 24 + align(ARRAY_HEADER + s.length());
+        } else if (o instanceof Long) {
+            long l = (Long) o;
+            return l >= -128 && l <= 127 ? 0 : 16;
+        } else if (o instanceof Number || o instanceof Character) {
+            if (o instanceof BigInteger) {
+                return 40 + align(ARRAY_HEADER + ((BigInteger) o).bitLength() / 8 + 1);
+            } else if (o instanceof BigDecimal) {
+                return 40 + estimate(((BigDecimal) o).unscaledValue(), d);
+            } else if (o instanceof Ratio) {
+                return 24 + estimate(((Ratio) o).numerator, d) + estimate(((Ratio) o).denominator, d);
+            } else if (o instanceof BigInt) {
+                BigInteger bi = ((BigInt) o).bipart;
+                return 24 + (bi == null ? 0 : estimate(bi, d));
+            }
+            return 16;
+        } else if (o instanceof EntryMeta) {
+            EntryMeta em = (EntryMeta) o;
+            // header, refs, flag, load time and expiry fields, plus idents array if more than one
+            int n = em.identCount();
+            long size = 48 + estimate(em.getV(), d) + (n > 1 ? align(ARRAY_HEADER + (long) REF * n) : 0);
+            for (int i = 0; i < n; i++) {
+                size += estimate(em.ident(i), d);
+            }
+            return size;
+        } else if (o instanceof Compressed) {
+            return 16 + array(((Compressed) o).getBytes(), d);
+        } else if (o instanceof CacheKey) {
+            return 24 + estimate(((CacheKey) o).getArgs(), d);
+        } else if (o instanceof Symbol) {
+            return 32;
+        } else if (o.getClass().isArray()) {
+            return array(o, d);
+        } else if (o instanceof IRecord) {
+            // record fields, plus meta, extmap and hash fields
+            IPersistentMap m = (IPersistentMap) o;
+            return align(HEADER + REF * (m.count() + 2) + 8) + values(m, m.count(), d);
+        } else if (o instanceof IPersistentMap || o instanceof Map) {
+            int n = o instanceof Counted ? ((Counted) o).count() : ((Map<?, ?>) o).size();
+            long overhead = o instanceof PersistentArrayMap ? 24 + align(ARRAY_HEADER + 2L * REF * n) : 48 + 40L * n;
+            return overhead + entries(o, n, d);
+        } else if (o instanceof IPersistentSet) {
+            int n = ((Counted) o).count();
+            // set wraps a map with keys mapping to themselves
+            return 16 + 48 + 40L * n + elements((Iterable<?>) o, n, d);
+        } else if (o instanceof IPersistentVector) {
+            int n = ((Counted) o).count();
+            // tail of up to 32 refs, plus full nodes of 32 refs
+            long nodes = n <= 32 ? align(ARRAY_HEADER + (long) REF * n) : align(ARRAY_HEADER + REF * 32L) * (n / 32 + 1);
+            return 40 + nodes + elements((Iterable<?>) o, n, d);
+        } else if (o instanceof LazySeq) {
+            LazySeq ls = (LazySeq) o;
+            return ls.isRealized() ? 32 + estimate(ls.seq(), d) : 32;
+        } else if (o instanceof ISeq) {
+            return seq((ISeq) o, d);
+        } else if (o instanceof Collection) {
+            int n = ((Collection<?>) o).size();
+            return 32 + 16L * n + elements((Collection<?>) o, n, d);
+        } else if (o instanceof IDeref && o instanceof IPending) {
+            return 32;
+        }
+        return 16;
+    }
+
+    private static long array(Object arr, int depth) {
+        Class<?> c = arr.getClass().getComponentType();
+        if (c.isPrimitive()) {
+            int len = java.lang.reflect.Array.getLength(arr);
+            int elem = c == long.class || c == double.class ? 8 :
+                    c == int.class || c == float.class ? 4 :
+                            c == short.class || c == char.class ? 2 : 1;
+            return align(ARRAY_HEADER + (long) elem * len);
+        }
+        Object[] a = (Object[]) arr;
+        long size = align(ARRAY_HEADER + (long) REF * a.length);
+        int sampled = Math.min(a.length, SAMPLE);
+        long sum = 0;
+        for (int i = 0; i < sampled; i++) {
+            sum += estimate(a[i], depth);
+        }
+        return size + extrapolate(sum, sampled, a.length);
+    }
+
+    private static long extrapolate(long sum, int sampled, int n) {
+        return sampled == 0 ? 0 : sampled == n ? sum : sum * n / sampled;
+    }
+
+    private static long elements(Iterable<?> it, int n, int depth) {
+        long sum = 0;
+        int sampled = 0;
+        Iterator<?> iter = it.iterator();
+        while (sampled < SAMPLE && iter.hasNext()) {
+            sum += estimate(iter.next(), depth);
+            sampled++;
+        }
+        return extrapolate(sum, sampled, n);
+    }
+
+    private static long entries(Object m, int n, int depth) {
+        long sum = 0;
+        int sampled = 0;
+        // java.util.Map isn't Iterable, Clojure maps iterate their entries
+        Iterator<?> iter = m instanceof IPersistentMap ? ((Iterable<?>) m).iterator() : ((Map<?, ?>) m).entrySet().iterator();
+        while (sampled < SAMPLE && iter.hasNext()) {
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) iter.next();
+            sum += estimate(e.getKey(), depth) + estimate(e.getValue(), depth);
+            sampled++;
+        }
+        return extrapolate(sum, sampled, n);
+    }
+
+    private static long values(IPersistentMap m, int n, int depth) {
+        long sum = 0;
+        int sampled = 0;
+        for (ISeq s = m.seq(); s != null && sampled < SAMPLE; s = s.next()) {
+            sum += estimate(((Map.Entry<?, ?>) s.first()).getValue(), depth);
+            sampled++;
+        }
+        return extrapolate(sum, sampled, n);
+    }
+
+    private static long seq(ISeq s, int depth) {
+        long sum = 0;
+        int sampled = 0;
+        ISeq cur = s;
+        while (cur != null && sampled < SAMPLE) {
+            sum += 32 + estimate(cur.first(), depth);
+            sampled++;
+            Object next = cur instanceof Cons || cur instanceof PersistentList || cur instanceof ASeq && !(cur instanceof LazySeq)
+                    ? cur.more() : null;
+            if (next instanceof LazySeq && !((LazySeq) next).isRealized()) {
+                return sum;
+            }
+            cur = next instanceof ISeq ? ((ISeq) next).seq() : null;
+        }
+        if (cur == null) {
+            return sum;
+        }
+        // counted seqs can be extrapolated, others are counted as sampled
+        return s instanceof Counted ? extrapolate(sum, sampled, ((Counted) s).count()) : sum;
+    }
+}
@@ -0,0 +1,223 @@
+package memento.caffeine;
+
+import com.github.benmanes.caffeine.cache.Policy;
+import memento.base.CacheKey;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares a total budget (entries, or weight such as estimated bytes) between Caffeine caches by setting their maximum.
+ * <p>
+ * Each rebalance estimates the value of capacity for each cache as access rate times average load time times
+ * hit ratio at that capacity, where the hit ratio comes from the cache's miss ratio curve (interpolated linearly
+ * and flat past the largest estimate). Every cache gets a minimum share, then the rest of the budget is handed out in
+ * steps, each going to the cache where it saves most load time. Capacity that saves nothing is spread evenly.
+ * Limits move only part of the way to the new allocation each time, to avoid oscillation.
+ * <p>
+ * All caches must use the same unit and have miss ratio curve profiling enabled. Caches are held weakly.
+ */
+public class BudgetManager {
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Memento Budget");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final int STEPS = 256;
+    private static final double DAMPING = 0.5;
+
+    private final long budget;
+    private final double minShare;
+    private final List<Managed> caches = new ArrayList<>();
+    private ScheduledFuture<?> scheduled;
+
+    /**
+     * @param budget   total of cache limits
+     * @param minShare share of budget guaranteed to each cache, as long as the budget allows
+     */
+    public BudgetManager(long budget, double minShare) {
+        this.budget = budget;
+        this.minShare = minShare;
+    }
+
+    /**
+     * Adds the cache, setting all caches to an equal share of the budget until the next rebalance.
+     */
+    public synchronized void register(Object name, CaffeineCache_ cache) {
+        Policy.Eviction<CacheKey, Object> eviction = cache.getEviction();
+        if (eviction == null || cache.getMissRatioProfiler() == null) {
+            throw new IllegalArgumentException("Cache " + name + " needs size or weight limit and miss ratio curve profiling");
+        }
+        purge();
+        for (Managed m : caches) {
+            CaffeineCache_ c = m.cache.get();
+            if (c != null && c.getEviction().isWeighted() != eviction.isWeighted()) {
+                throw new IllegalArgumentException("Cache " + name + " limit is not in the same unit as cache " + m.name);
+            }
+        }
+        caches.add(new Managed(name, cache));
+        long share = budget / caches.size();
+        for (Managed m : caches) {
+            CaffeineCache_ c = m.cache.get();
+            if (c != null) {
+                c.getEviction().setMaximum(share);
+            }
+        }
+    }
+
+    public synchronized void unregister(CaffeineCache_ cache) {
+        caches.removeIf(m -> m.cache.get() == cache);
+    }
+
+    /**
+     * Rebalance periodically on the shared thread.
+     */
+    public synchronized void start(long intervalNanos) {
+        stop();
+        scheduled = executor.scheduleWithFixedDelay(this::rebalance, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+    }
+
+    private void purge() {
+        caches.removeIf(m -> m.cache.get() == null);
+    }
+
+    /**
+     * Redistributes the budget, returns new limits by cache name.
+     */
+    public synchronized Map<Object, Long> rebalance() {
+        purge();
+        int n = caches.size();
+        List<CaffeineCache_> live = new ArrayList<>(n);
+        for (Managed m : caches) {
+            live.add(m.cache.get());
+        }
+        if (live.contains(null) || n == 0) {
+            return getLimits();
+        }
+        long min = Math.min((long) (budget * minShare), budget / n);
+        long remaining = budget - min * n;
+        long step = Math.max(1, remaining / STEPS);
+        long[] alloc = new long[n];
+        double[] value = new double[n];
+        for (int i = 0; i < n; i++) {
+            alloc[i] = min;
+            value[i] = caches.get(i).value(live.get(i));
+        }
+        while (remaining >= step) {
+            int best = -1;
+            double bestGain = 0;
+            for (int i = 0; i < n; i++) {
+                MissRatioProfiler p = live.get(i).getMissRatioProfiler();
+                double gain = value[i] * (hitRatio(p, alloc[i] + step) - hitRatio(p, alloc[i]));
+                if (gain > bestGain) {
+                    best = i;
+                    bestGain = gain;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            alloc[best] += step;
+            remaining -= step;
+        }
+        for (int i = 0; i < n; i++) {
+            alloc[i] += remaining / n;
+            Policy.Eviction<CacheKey, Object> eviction = live.get(i).getEviction();
+            long current = eviction.getMaximum();
+            eviction.setMaximum(Math.max(1, current + (long) ((alloc[i] - current) * DAMPING)));
+        }
+        return getLimits();
+    }
+
+    /**
+     * Estimated hit ratio of the cache with the limit, from its miss ratio curve.
+     */
+    static double hitRatio(MissRatioProfiler p, long limit) {
+        double[] ratios = p.getRatios();
+        double[] hits = p.getHitRatios();
+        double prevX = 0;
+        double prevY = 0;
+        for (int i = 0; i < ratios.length; i++) {
+            double x = ratios[i] * p.getLimit();
+            if (limit <= x) {
+                return prevY + (hits[i] - prevY) * (limit - prevX) / (x - prevX);
+            }
+            prevX = x;
+            prevY = hits[i];
+        }
+        return prevY;
+    }
+
+    /**
+     * Current limits by cache name.
+     */
+    public synchronized Map<Object, Long> getLimits() {
+        Map<Object, Long> ret = new LinkedHashMap<>();
+        for (Managed m : caches) {
+            CaffeineCache_ c = m.cache.get();
+            if (c != null) {
+                ret.put(m.name, c.getEviction().getMaximum());
+            }
+        }
+        return ret;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    private static class Managed {
+        private final Object name;
+        private final WeakReference<CaffeineCache_> cache;
+        private long accesses;
+        private double rate;
+
+        Managed(Object name, CaffeineCache_ cache) {
+            this.name = name;
+            this.cache = new WeakReference<>(cache);
+            this.accesses = cache.getMissRatioProfiler().getAccesses();
+        }
+
+        /**
+         * Load time saved per unit of hit ratio since last rebalance, smoothed.
+         */
+        double value(CaffeineCache_ c) {
+            MissRatioProfiler p = c.getMissRatioProfiler();
+            long current = p.getAccesses();
+            double sampled = (current - accesses) / p.getSampleRate();
+            accesses = current;
+            rate = rate == 0 ? sampled : rate * (1 - DAMPING) + sampled * DAMPING;
+            return rate * loadCost(c);
+        }
+
+        private static double loadCost(CaffeineCache_ c) {
+            Metrics metrics = c.getMetrics();
+            if (metrics == null) {
+                return 1.0;
+            }
+            long loads = 0;
+            long time = 0;
+            for (SegmentStats s : metrics.getStats().values()) {
+                loads += s.getLoads();
+                time += s.getTotalLoadTime();
+            }
+            return loads == 0 ? 1.0 : (double) time / loads;
+        }
+    }
+}
@@ -3,12 +3,16 @@ package memento.caffeine;
 import clojure.lang.*;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
 import com.github.benmanes.caffeine.cache.RemovalListener;
 import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import memento.base.CacheKey;
 import memento.base.EntryMeta;
 import memento.base.LockoutMap;
+import memento.base.Population;
 import memento.base.Segment;
+import memento.jfr.InvalidateIdsEvent;
+import memento.jfr.LoadEvent;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -19,6 +23,8 @@ public class CaffeineCache_ {
 
     private final BiFunction<Segment, ISeq, CacheKey> keyFn;
 
+    private final IFn cacheKeyFn;
+
     private final SecondaryIndex secIndex;
     private final IFn retFn;
 
@@ -28,14 +34,55 @@ public class CaffeineCache_ {
 
     private final Set<SpecialPromise> loads = ConcurrentHashMap.newKeySet();
 
+    private final KeyFilter keyFilter;
+
+    private final Metrics metrics;
+
+    private volatile TraceRecorder trace;
+
+    private volatile MissRatioProfiler mrc;
+
+    private volatile KeyProfiler keyProfiler;
+
+    private volatile FootprintReporter footprint;
+
+    private volatile SegmentQuotas quotas;
+
+    private volatile boolean recordLoadCost;
+
+    private volatile Doorkeeper doorkeeper;
+
+    private volatile L0Cache l0;
+    private volatile Compressor compressor;
+
+    private volatile VariableExpiry expiry;
+
     public CaffeineCache_(Caffeine<Object, Object> builder, final IFn keyFn, final IFn retFn, final IFn retExFn, SecondaryIndex secIndex) {
+        this(builder, keyFn, retFn, retExFn, secIndex, 0);
+    }
+
+    public CaffeineCache_(Caffeine<Object, Object> builder, final IFn keyFn, final IFn retFn, final IFn retExFn, SecondaryIndex secIndex,
+                          long keyFilterSize) {
+        this(builder, keyFn, retFn, retExFn, secIndex, keyFilterSize, null);
+    }
+
+    /**
+     * @param keyFilterSize if positive, a KeyFilter is maintained, with this many expected keys
+     * @param metrics       if not null, per Segment metrics are recorded, builder should have a removal listener that reports
+     *                      to the same metrics, see listener
+     */
+    public CaffeineCache_(Caffeine<Object, Object> builder, final IFn keyFn, final IFn retFn, final IFn retExFn, SecondaryIndex secIndex,
+                          long keyFilterSize, Metrics metrics) {
         this.keyFn = keyFn == null ?
                 (segment, args) -> new CacheKey(segment.getId(), segment.getKeyFn().invoke(args)) :
                 (segment, args) -> new CacheKey(segment.getId(), keyFn.invoke(segment.getKeyFn().invoke(args)));
+        this.cacheKeyFn = keyFn;
         this.retFn = retFn;
         this.delegate = builder.build();
         this.secIndex = secIndex;
         this.retExFn = retExFn;
+        this.keyFilter = keyFilterSize > 0 ? new KeyFilter(keyFilterSize, 0.01, delegate::asMap) : null;
+        this.metrics = metrics;
     }
 
     private void initLoad(SpecialPromise promise) {
@@ -43,35 +90,130 @@ public class CaffeineCache_ {
         loads.add(promise);
     }
 
+    /**
+     * Transforms a key produced by Segment.cacheKey to the key used by this cache.
+     */
+    CacheKey ownKey(CacheKey segmentKey) {
+        return cacheKeyFn == null ? segmentKey : new CacheKey(segmentKey.getId(), cacheKeyFn.invoke(segmentKey.getArgs()));
+    }
+
+    /**
+     * Key used by this cache for the args.
+     */
+    CacheKey key(Segment segment, ISeq args) {
+        return keyFn.apply(segment, args);
+    }
+
     public Object cached(Segment segment, ISeq args) throws Throwable {
-        CacheKey key = keyFn.apply(segment, args);
+        return load(segment, args, keyFn.apply(segment, args));
+    }
+
+    public Object cached(Segment segment, ISeq args, CacheKey segmentKey) throws Throwable {
+        return load(segment, args, ownKey(segmentKey));
+    }
+
+    Object load(Segment segment, ISeq args, CacheKey key) throws Throwable {
+        TraceRecorder trace = this.trace;
+        MissRatioProfiler mrc = this.mrc;
+        KeyProfiler keyProfiler = this.keyProfiler;
+        // L0 hits would be invisible to profiling, so it's bypassed while profiling
+        L0Cache l0 = trace == null && mrc == null && keyProfiler == null ? this.l0 : null;
+        long stamp = 0;
+        if (l0 != null) {
+            stamp = l0.version();
+            Object v = l0.get(key, delegate.asMap());
+            if (v != null && !LockoutMap.awaitLockout(v)) {
+                if (metrics != null) {
+                    metrics.hit(key.getId());
+                }
+                return EntryMeta.unwrap(v);
+            }
+        }
+        Object mode = Population.mode();
+        if (mode != Boolean.TRUE && !delegate.asMap().containsKey(key)) {
+            return loadUnpopulated(segment, args, key, Population.layer(mode));
+        }
+        boolean recorded = metrics == null;
         do {
             SpecialPromise p = new SpecialPromise();
             // check for ongoing load
             Object cached = delegate.asMap().putIfAbsent(key, p);
             if (cached == null) {
+                long start = 0;
+                if (metrics != null) {
+                    if (!recorded) {
+                        metrics.miss(key.getId());
+                        recorded = true;
+                    }
+                    start = System.nanoTime();
+                } else if (trace != null || keyProfiler != null || recordLoadCost) {
+                    start = System.nanoTime();
+                }
+                LoadEvent event = LoadEvent.start();
                 try {
                     initLoad(p);
                     // calculate value
                     Object result = AFn.applyToHelper(segment.getF(), args);
+                    if (metrics != null) {
+                        metrics.loaded(key.getId(), System.nanoTime() - start, true);
+                    }
                     if (retFn != null) {
                         result = retFn.invoke(args, result);
                     }
+                    if (trace != null) {
+                        trace.loaded(key, System.nanoTime() - start, result);
+                    }
+                    if (mrc != null) {
+                        mrc.access(key, result);
+                    }
+                    if (keyProfiler != null) {
+                        keyProfiler.accessed(key);
+                        keyProfiler.loaded(key, System.nanoTime() - start);
+                    }
                     if (!p.deliver(result)) {
                         // The SpecialPromise was invalidated, restart the process
+                        if (event != null) {
+                            event.end(key.getId(), LoadEvent.INVALIDATED);
+                        }
                         delegate.asMap().remove(key, p);
                         Thread.interrupted();
                         continue;
                     }
-                    if (result instanceof EntryMeta && ((EntryMeta) result).isNoCache()) {
+                    Doorkeeper doorkeeper = this.doorkeeper;
+                    if (result instanceof EntryMeta && ((EntryMeta) result).isNoCache()
+                            || doorkeeper != null && !doorkeeper.admit(key)) {
+                        if (event != null) {
+                            event.end(key.getId(), LoadEvent.NO_CACHE);
+                        }
                         delegate.asMap().remove(key, p);
                     } else {
+                        if (event != null) {
+                            event.end(key.getId(), LoadEvent.LOADED);
+                        }
                         // if valid add to secondary index
                         secIndex.add(key, result);
-                        delegate.asMap().replace(key, p, result == null ? EntryMeta.NIL : result);
+                        Object stored = result == null ? EntryMeta.NIL : result;
+                        if (recordLoadCost) {
+                            stored = CostWeigher.withCost(stored, System.nanoTime() - start);
+                        }
+                        stored = compressed(withExpiry(key, stored));
+                        boolean replaced = delegate.asMap().replace(key, p, stored);
+                        if (keyFilter != null) {
+                            keyFilter.add(key);
+                        }
+                        SegmentQuotas quotas = this.quotas;
+                        if (replaced && quotas != null) {
+                            trimmed(quotas.added(segment, key, stored));
+                        }
                     }
                     return EntryMeta.unwrap(result);
                 } catch (Throwable t) {
+                    if (metrics != null) {
+                        metrics.loaded(key.getId(), System.nanoTime() - start, false);
+                    }
+                    if (event != null) {
+                        event.end(key.getId(), p.isInvalid() ? LoadEvent.INVALIDATED : LoadEvent.FAILED);
+                    }
                     delegate.asMap().remove(key, p);
                     if (!p.isInvalid()) {
                         p.deliverException(retExFn == null ? t : (Throwable) retExFn.invoke(args, t));
@@ -87,6 +229,13 @@ public class CaffeineCache_ {
                 // join into ongoing load
                 if (cached instanceof SpecialPromise) {
                     SpecialPromise sp = (SpecialPromise) cached;
+                    if (!recorded) {
+                        metrics.waited(key.getId());
+                        recorded = true;
+                    }
+                    if (keyProfiler != null) {
+                        keyProfiler.waited(key);
+                    }
                     Object ret = sp.await(key);
                     if (ret != EntryMeta.absent && !LockoutMap.awaitLockout(ret)) {
                         // if not invalidated, return the value
@@ -94,6 +243,21 @@ public class CaffeineCache_ {
                     }
                 } else {
                     if (!LockoutMap.awaitLockout(cached)) {
+                        if (!recorded) {
+                            metrics.hit(key.getId());
+                        }
+                        if (trace != null) {
+                            trace.hit(key);
+                        }
+                        if (mrc != null) {
+                            mrc.access(key, cached);
+                        }
+                        if (keyProfiler != null) {
+                            keyProfiler.accessed(key);
+                        }
+                        if (l0 != null) {
+                            l0.put(key, cached, stamp);
+                        }
                         // if not invalidated, return the value
                         return EntryMeta.unwrap(cached);
                     }
@@ -103,8 +267,57 @@ public class CaffeineCache_ {
         } while (true);
     }
 
+    /**
+     * Loads value without putting anything in the cache, not even a promise, which could evict another entry.
+     */
+    private Object loadUnpopulated(Segment segment, ISeq args, CacheKey key, Map<CacheKey, Object> layer) throws Throwable {
+        if (layer != null) {
+            Object v = layer.get(key);
+            if (v != null) {
+                return EntryMeta.unwrap(v);
+            }
+        }
+        if (metrics != null) {
+            metrics.miss(key.getId());
+        }
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = AFn.applyToHelper(segment.getF(), args);
+        } catch (Throwable t) {
+            if (metrics != null) {
+                metrics.loaded(key.getId(), System.nanoTime() - start, false);
+            }
+            throw t;
+        }
+        if (metrics != null) {
+            metrics.loaded(key.getId(), System.nanoTime() - start, true);
+        }
+        if (retFn != null) {
+            result = retFn.invoke(args, result);
+        }
+        if (layer != null && !(result instanceof EntryMeta && ((EntryMeta) result).isNoCache())) {
+            layer.put(key, result == null ? EntryMeta.NIL : result);
+        }
+        return EntryMeta.unwrap(result);
+    }
+
     public Object ifCached(Segment segment, ISeq args) throws Throwable {
-        CacheKey key = keyFn.apply(segment, args);
+        return getIfPresent(keyFn.apply(segment, args));
+    }
+
+    public Object ifCached(Segment segment, ISeq args, CacheKey segmentKey) throws Throwable {
+        return getIfPresent(ownKey(segmentKey));
+    }
+
+    /**
+     * Returns false if the entry is definitely not in the cache. Always true if KeyFilter is not enabled.
+     */
+    public boolean mightContain(Segment segment, ISeq args, CacheKey segmentKey) {
+        return keyFilter == null || keyFilter.mightContain(ownKey(segmentKey));
+    }
+
+    Object getIfPresent(CacheKey key) throws Throwable {
         Object v = delegate.getIfPresent(key);
         Object absent = EntryMeta.absent;
         if (v == null) {
@@ -134,6 +347,10 @@ public class CaffeineCache_ {
                 iter.remove();
             }
         }
+        changed();
+        if (keyFilter != null) {
+            keyFilter.cleared();
+        }
     }
 
     public void invalidate(Segment segment, ISeq args) {
@@ -141,16 +358,27 @@ public class CaffeineCache_ {
         if (v instanceof SpecialPromise) {
             ((SpecialPromise) v).invalidate();
         }
+        changed();
+        if (keyFilter != null && v != null) {
+            keyFilter.removed(1);
+        }
     }
 
     public void invalidateAll() {
         delegate.invalidateAll();
+        changed();
+        if (keyFilter != null) {
+            keyFilter.cleared();
+        }
     }
 
     public void invalidateIds(Iterable<Object> ids) {
+        InvalidateIdsEvent event = InvalidateIdsEvent.start();
         HashSet<CacheKey> keys = new HashSet<>();
+        int idCount = 0;
         for (Object id : ids) {
             secIndex.drainKeys(id, keys::add);
+            idCount++;
         }
         ConcurrentMap<CacheKey, Object> map = delegate.asMap();
         for (CacheKey k : keys) {
@@ -160,6 +388,13 @@ public class CaffeineCache_ {
             }
         }
         loads.forEach(row -> row.addInvalidIds(ids));
+        changed();
+        if (keyFilter != null) {
+            keyFilter.removed(keys.size());
+        }
+        if (event != null) {
+            event.end(idCount, keys.size(), loads.size());
+        }
     }
 
     public void addEntries(Segment segment, IPersistentMap argsToVals) {
@@ -168,7 +403,42 @@ public class CaffeineCache_ {
             CacheKey key = keyFn.apply(segment, RT.seq(entry.getKey()));
             Object val = entry.getValue();
             secIndex.add(key, val);
-            delegate.put(key, val == null ? EntryMeta.NIL : val);
+            Object stored = compressed(withExpiry(key, val == null ? EntryMeta.NIL : val));
+            delegate.put(key, stored);
+            if (keyFilter != null) {
+                keyFilter.add(key);
+            }
+            SegmentQuotas quotas = this.quotas;
+            if (quotas != null) {
+                trimmed(quotas.added(segment, key, stored));
+            }
+        }
+        changed();
+    }
+
+    private Object withExpiry(CacheKey key, Object stored) {
+        VariableExpiry expiry = this.expiry;
+        return expiry == null ? stored : expiry.withExpiry(key, stored);
+    }
+
+    private Object compressed(Object stored) {
+        Compressor compressor = this.compressor;
+        return compressor == null ? stored : compressor.compress(stored);
+    }
+
+    /**
+     * Invalidates L0 entries after entries were removed or replaced.
+     */
+    private void changed() {
+        L0Cache l0 = this.l0;
+        if (l0 != null) {
+            l0.invalidateAll();
+        }
+    }
+
+    private void trimmed(int removed) {
+        if (keyFilter != null && removed > 0) {
+            keyFilter.removed(removed);
         }
     }
 
@@ -176,6 +446,138 @@ public class CaffeineCache_ {
         return delegate.asMap();
     }
 
+    public KeyFilter getKeyFilter() {
+        return keyFilter;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public TraceRecorder getTraceRecorder() {
+        return trace;
+    }
+
+    public KeyProfiler getKeyProfiler() {
+        return keyProfiler;
+    }
+
+    /**
+     * Starts feeding accesses to the key profiler, null stops profiling.
+     */
+    public void setKeyProfiler(KeyProfiler keyProfiler) {
+        this.keyProfiler = keyProfiler;
+    }
+
+    public FootprintReporter getFootprintReporter() {
+        return footprint;
+    }
+
+    /**
+     * Sets the reporter to be returned by getFootprintReporter, stopping the previous one.
+     */
+    public void setFootprintReporter(FootprintReporter footprint) {
+        FootprintReporter prev = this.footprint;
+        if (prev != null && prev != footprint) {
+            prev.stop();
+        }
+        this.footprint = footprint;
+    }
+
+    public boolean isRecordLoadCost() {
+        return recordLoadCost;
+    }
+
+    /**
+     * If true, loaded values are stored with their load time, in EntryMeta, for CostWeigher.
+     */
+    public void setRecordLoadCost(boolean recordLoadCost) {
+        this.recordLoadCost = recordLoadCost;
+    }
+
+    public Doorkeeper getDoorkeeper() {
+        return doorkeeper;
+    }
+
+    /**
+     * Starts filtering loaded values with the doorkeeper, null caches all values.
+     */
+    public void setDoorkeeper(Doorkeeper doorkeeper) {
+        this.doorkeeper = doorkeeper;
+    }
+
+    public VariableExpiry getExpiry() {
+        return expiry;
+    }
+
+    /**
+     * Sets the variable expiry of the builder, so stored values carry their evaluated expiry.
+     */
+    public void setExpiry(VariableExpiry expiry) {
+        this.expiry = expiry;
+    }
+
+    public L0Cache getL0() {
+        return l0;
+    }
+
+    /**
+     * Starts caching hit entries in the thread local L0 cache, null stops it.
+     */
+    public void setL0(L0Cache l0) {
+        this.l0 = l0;
+    }
+
+    public Compressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * Starts storing large values compressed, null stops it. Entries already in the cache are not changed.
+     */
+    public void setCompressor(Compressor compressor) {
+        this.compressor = compressor;
+    }
+
+    public SegmentQuotas getQuotas() {
+        return quotas;
+    }
+
+    /**
+     * Starts enforcing quotas, the quotas must also be passed to the removal listener.
+     */
+    public void setQuotas(SegmentQuotas quotas) {
+        if (quotas != null) {
+            quotas.bind(delegate);
+        }
+        this.quotas = quotas;
+    }
+
+    public MissRatioProfiler getMissRatioProfiler() {
+        return mrc;
+    }
+
+    /**
+     * Starts feeding accesses to the profiler, null stops profiling.
+     */
+    public void setMissRatioProfiler(MissRatioProfiler mrc) {
+        this.mrc = mrc;
+    }
+
+    /**
+     * Starts recording accesses into the recorder, null stops recording.
+     */
+    public void setTraceRecorder(TraceRecorder trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Size based eviction policy of the cache, or null if not bounded.
+     */
+    public Policy.Eviction<CacheKey, Object> getEviction() {
+        return delegate.policy().eviction().orElse(null);
+    }
+
     public CacheStats stats() {
         return delegate.stats();
     }
@@ -185,14 +587,45 @@ public class CaffeineCache_ {
             List<Object> list = (List<Object>) k;
             CacheKey key = new CacheKey(list.get(0), list.get(1));
             secIndex.add(key, v);
-            delegate.put(key, v == null ? EntryMeta.NIL : v);
+            Object stored = compressed(withExpiry(key, v == null ? EntryMeta.NIL : v));
+            delegate.put(key, stored);
+            if (keyFilter != null) {
+                keyFilter.add(key);
+            }
+            SegmentQuotas quotas = this.quotas;
+            if (quotas != null) {
+                trimmed(quotas.added(null, key, stored));
+            }
         });
+        changed();
     }
 
     public static RemovalListener<CacheKey, Object> listener(IFn removalListener) {
+        return listener(removalListener, null);
+    }
+
+    /**
+     * Removal listener that reports removals to metrics and calls user's removal listener. Either can be null.
+     */
+    public static RemovalListener<CacheKey, Object> listener(IFn removalListener, Metrics metrics) {
+        return listener(removalListener, metrics, null);
+    }
+
+    /**
+     * Removal listener that reports removals to metrics and quotas and calls user's removal listener. Any can be null.
+     */
+    public static RemovalListener<CacheKey, Object> listener(IFn removalListener, Metrics metrics, SegmentQuotas quotas) {
         return (k, v, removalCause) -> {
             if (!(v instanceof SpecialPromise)) {
-                removalListener.invoke(k.getId(), k.getArgs(), v instanceof EntryMeta ? ((EntryMeta) v).getV() : v, removalCause);
+                if (quotas != null) {
+                    quotas.removed(k, v);
+                }
+                if (metrics != null) {
+                    metrics.removed(k.getId(), removalCause);
+                }
+                if (removalListener != null) {
+                    removalListener.invoke(k.getId(), k.getArgs(), EntryMeta.unwrap(v), removalCause);
+                }
             }
         };
     }
@@ -0,0 +1,87 @@
+package memento.caffeine;
+
+import memento.base.Codec;
+import memento.base.Compressed;
+import memento.base.EntryMeta;
+import memento.base.SizeEstimator;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stores values with estimated size of at least threshold bytes encoded by the codec, so large values
+ * take less memory in the cache, at the cost of decoding them on every hit.
+ * <p>
+ * Values that the codec cannot encode, or whose encoded bytes aren't smaller than their estimated size, are stored
+ * as they are. Compressed values
+ * are weighed by their encoded size when the cache weighs entries by estimated size.
+ */
+public class Compressor {
+
+    private final Codec codec;
+    private final long threshold;
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * @param codec     codec of the stored values
+     * @param threshold minimum estimated size in bytes of a value to compress
+     */
+    public Compressor(Codec codec, long threshold) {
+        this.codec = codec;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns the object to store in the cache, with the value replaced by a Compressed one if it is large enough.
+     * EntryMeta is copied rather than changed, because the caller may still hold it.
+     */
+    public Object compress(Object stored) {
+        EntryMeta em = stored instanceof EntryMeta ? (EntryMeta) stored : null;
+        Object v = em == null ? stored : em.getV();
+        if (v == null || v instanceof Compressed) {
+            return stored;
+        }
+        if (!SizeEstimator.atLeast(v, threshold)) {
+            return stored;
+        }
+        byte[] bytes = codec.encode(v);
+        // the estimate is an approximation of the retained size, so compare with it rather than the threshold,
+        // which large values that compress well would never get under
+        if (bytes == null || !SizeEstimator.atLeast(v, bytes.length + 1L)) {
+            skipped.increment();
+            return stored;
+        }
+        compressed.increment();
+        Compressed c = new Compressed(bytes, codec);
+        if (em == null) {
+            return c;
+        }
+        EntryMeta ret = new EntryMeta(em);
+        ret.setExpiry(em.getExpireAfterWrite(), em.getExpireAfterRead());
+        ret.setV(c);
+        return ret;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Number of values stored compressed.
+     */
+    public long getCompressed() {
+        return compressed.sum();
+    }
+
+    /**
+     * Number of values over threshold stored as they are, because they couldn't be encoded or didn't get
+     * smaller than their estimated size.
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+}
@@ -0,0 +1,57 @@
+package memento.caffeine;
+
+import com.github.benmanes.caffeine.cache.Weigher;
+import memento.base.CacheKey;
+import memento.base.EntryMeta;
+
+/**
+ * Weigher that scales weight of entries by their recorded load time, so the cache prefers keeping entries that are
+ * expensive to recompute per unit of weight.
+ * <p>
+ * An entry that took reference time to load weighs its base weight, an entry that took n times as long weighs
+ * 1/n of it, and vice versa, within MAX_SCALE. Entries without recorded load time weigh their base weight. The weight
+ * depends only on the entry, so it is the same each time it is weighed.
+ */
+public class CostWeigher implements Weigher<CacheKey, Object> {
+
+    public static final double MAX_SCALE = 16.0;
+
+    private final Weigher<CacheKey, Object> base;
+    private final long referenceNanos;
+
+    /**
+     * @param base           weigher of base weight of entries
+     * @param referenceNanos load time at which an entry weighs its base weight
+     */
+    public CostWeigher(Weigher<CacheKey, Object> base, long referenceNanos) {
+        this.base = base;
+        this.referenceNanos = Math.max(1, referenceNanos);
+    }
+
+    /**
+     * Returns the value with load time recorded, wrapping it into EntryMeta if needed.
+     */
+    public static Object withCost(Object value, long loadNanos) {
+        if (value instanceof EntryMeta && value != EntryMeta.NIL) {
+            ((EntryMeta) value).setLoadNanos(loadNanos);
+            return value;
+        }
+        EntryMeta ret = new EntryMeta(value == EntryMeta.NIL ? null : value, false, null);
+        ret.setLoadNanos(loadNanos);
+        return ret;
+    }
+
+    public double scale(long loadNanos) {
+        if (loadNanos <= 0) {
+            return 1.0;
+        }
+        return Math.max(1 / MAX_SCALE, Math.min(MAX_SCALE, (double) referenceNanos / loadNanos));
+    }
+
+    @Override
+    public int weigh(CacheKey key, Object value) {
+        int w = base.weigh(key, value);
+        long cost = value instanceof EntryMeta ? ((EntryMeta) value).getLoadNanos() : 0;
+        return cost <= 0 ? w : (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(w * scale(cost))));
+    }
+}
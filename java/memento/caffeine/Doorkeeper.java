@@ -0,0 +1,46 @@
+package memento.caffeine;
+
+import memento.base.CacheKey;
+import memento.base.CountMinSketch;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admits a loaded value into the cache only once its key was requested (missed) n times recently.
+ * <p>
+ * Requests are counted in a count-min sketch, which is halved after 10 times its width requests,
+ * so keys requested once, like in a scan, never take space in the cache or the secondary index.
+ */
+public class Doorkeeper {
+
+    private final int n;
+    private final CountMinSketch requests;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param n      number of requests needed to admit
+     * @param window approximate number of requests over which requests are counted
+     */
+    public Doorkeeper(int n, int window) {
+        this.n = n;
+        this.requests = new CountMinSketch(Math.max(16, window / 10));
+    }
+
+    /**
+     * Records a request of the key that missed, returns true if the loaded value should be cached.
+     */
+    public boolean admit(CacheKey key) {
+        if (requests.increment(key.hashCode()) >= n) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Number of loaded values not cached.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -30,8 +30,8 @@ public interface Expiry {
 
         @Override
         public Object ttl(IPersistentMap conf, Object k, Object v) {
-            if (v instanceof IObj) {
-                IPersistentMap meta = ((IObj) v).meta();
+            IPersistentMap meta = v instanceof IObj ? ((IObj) v).meta() : null;
+            if (meta != null) {
                 Object ttl = meta.valAt(Durations.ttlKw);
                 if (ttl != null) {
                     return ttl;
@@ -43,8 +43,8 @@ public interface Expiry {
 
         @Override
         public Object fade(IPersistentMap conf, Object k, Object v) {
-            if (v instanceof IObj) {
-                IPersistentMap meta = ((IObj) v).meta();
+            IPersistentMap meta = v instanceof IObj ? ((IObj) v).meta() : null;
+            if (meta != null) {
                 return meta.valAt(Durations.fadeKw);
             }
             return null;
@@ -0,0 +1,210 @@
+package memento.caffeine;
+
+import clojure.lang.Indexed;
+import memento.base.CacheKey;
+import memento.base.EntryMeta;
+import memento.base.SizeEstimator;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Estimates heap used by cache entries, attributed to Segment ids and tags.
+ * <p>
+ * A scan walks the cache map with its weakly consistent iterator, so it never blocks cache operations. It counts every
+ * entry but estimates size of only a sample of them, extrapolating the rest. Every CHUNK entries the scan pauses, to
+ * limit the CPU it takes from the application. Estimates include the key, value, EntryMeta wrapper and
+ * the SecondaryIndex entries for tags.
+ * <p>
+ * Scans can run periodically on a shared daemon thread, the latest completed scan is available as a Report.
+ */
+public class FootprintReporter {
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Memento Footprint");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Estimated overhead of an index entry per tag ident: weak reference and hash set node
+     */
+    public static final int INDEX_ENTRY_OVERHEAD = 48 + 32;
+    private static final int CHUNK = 1024;
+
+    private final WeakReference<ConcurrentMap<CacheKey, Object>> map;
+    private final double sampleRate;
+    private final long pauseNanos;
+    private volatile Report last;
+    private volatile ScheduledFuture<?> scheduled;
+
+    /**
+     * @param map        cache map to scan, held weakly
+     * @param sampleRate ratio of entries to estimate
+     * @param pauseNanos pause after every chunk of entries
+     */
+    public FootprintReporter(ConcurrentMap<CacheKey, Object> map, double sampleRate, long pauseNanos) {
+        this.map = new WeakReference<>(map);
+        this.sampleRate = Math.min(1.0, Math.max(sampleRate, 0.0001));
+        this.pauseNanos = pauseNanos;
+    }
+
+    /**
+     * Scan periodically on the shared thread, until stop is called or the cache is collected.
+     */
+    public synchronized void start(long intervalNanos) {
+        stop();
+        scheduled = executor.scheduleWithFixedDelay(() -> {
+            if (map.get() == null) {
+                stop();
+            } else {
+                scan();
+            }
+        }, 0, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+    }
+
+    /**
+     * Latest completed report or null.
+     */
+    public Report getLast() {
+        return last;
+    }
+
+    /**
+     * Scan the cache in the calling thread, returns and publishes the report.
+     */
+    public Report scan() {
+        ConcurrentMap<CacheKey, Object> m = map.get();
+        Report r = new Report(sampleRate);
+        if (m == null) {
+            return r;
+        }
+        long start = System.nanoTime();
+        Iterator<Map.Entry<CacheKey, Object>> iter = m.entrySet().iterator();
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int n = 0;
+        while (iter.hasNext()) {
+            Map.Entry<CacheKey, Object> e = iter.next();
+            Object v = e.getValue();
+            if (v instanceof SpecialPromise) {
+                continue;
+            }
+            long bytes = sampleRate >= 1.0 || rnd.nextDouble() < sampleRate ? entryBytes(e.getKey(), v) : -1;
+            r.add(e.getKey().getId(), v instanceof EntryMeta ? (EntryMeta) v : null, bytes);
+            if (++n % CHUNK == 0 && pauseNanos > 0) {
+                LockSupport.parkNanos(pauseNanos);
+            }
+        }
+        r.timeNanos = System.nanoTime() - start;
+        last = r;
+        return r;
+    }
+
+    private static long entryBytes(CacheKey key, Object v) {
+        long ret = SizeEstimator.ENTRY_OVERHEAD + SizeEstimator.estimate(key.getArgs()) + SizeEstimator.estimate(v);
+        if (v instanceof EntryMeta) {
+            ret += (long) INDEX_ENTRY_OVERHEAD * ((EntryMeta) v).identCount();
+        }
+        return ret;
+    }
+
+    /**
+     * Entry count and byte estimate of a Segment id or tag.
+     */
+    public static class Usage {
+        private long entries;
+        private long sampled;
+        private long sampledBytes;
+
+        void add(long bytes) {
+            entries++;
+            if (bytes >= 0) {
+                sampled++;
+                sampledBytes += bytes;
+            }
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        /**
+         * Estimated bytes, extrapolated from sampled entries.
+         */
+        public long getBytes() {
+            return sampled == 0 ? 0 : sampledBytes * entries / sampled;
+        }
+    }
+
+    public static class Report {
+        private final double sampleRate;
+        private final Usage total = new Usage();
+        private final Map<Object, Usage> segments = new HashMap<>();
+        private final Map<Object, Usage> tags = new HashMap<>();
+        private final long createdAt = System.currentTimeMillis();
+        private long timeNanos;
+
+        Report(double sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        void add(Object id, EntryMeta meta, long bytes) {
+            total.add(bytes);
+            segments.computeIfAbsent(id, k -> new Usage()).add(bytes);
+            if (meta != null) {
+                for (int i = 0, n = meta.identCount(); i < n; i++) {
+                    // tag idents are [tag id] pairs, usage is attributed to the tag
+                    Object ident = meta.ident(i);
+                    Object tag = ident instanceof Indexed ? ((Indexed) ident).nth(0) : ident;
+                    tags.computeIfAbsent(tag, k -> new Usage()).add(bytes);
+                }
+            }
+        }
+
+        public double getSampleRate() {
+            return sampleRate;
+        }
+
+        public Usage getTotal() {
+            return total;
+        }
+
+        public Map<Object, Usage> getSegments() {
+            return segments;
+        }
+
+        /**
+         * Usage by tag. An entry with multiple tags counts towards each of them.
+         */
+        public Map<Object, Usage> getTags() {
+            return tags;
+        }
+
+        /**
+         * Wall clock millis when the scan started.
+         */
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public long getTimeNanos() {
+            return timeNanos;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package memento.caffeine;
+
+import memento.base.CacheKey;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * A concurrent Bloom filter of the keys present in a cache. If mightContain returns false,
+ * the key is guaranteed not to be in the cache.
+ * <p>
+ * Keys cannot be removed from a Bloom filter, so after invalidations the filter is rebuilt from
+ * the cache's map in the background. Keys added during the rebuild are added to both old and new
+ * filter, so the filter is always a superset of the cache's keys.
+ */
+public class KeyFilter {
+
+    private final long expected;
+    private final double fpp;
+    private final Supplier<Map<CacheKey, Object>> source;
+
+    private volatile Bits current;
+    private volatile Bits next;
+
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean(false);
+    private final AtomicLong removals = new AtomicLong();
+
+    /**
+     * @param expected expected number of keys in the cache
+     * @param fpp      desired false positive probability
+     * @param source   supplier of the cache's map, used for rebuilds
+     */
+    public KeyFilter(long expected, double fpp, Supplier<Map<CacheKey, Object>> source) {
+        this.expected = Math.max(expected, 64);
+        this.fpp = fpp;
+        this.source = source;
+        this.current = new Bits(this.expected, fpp);
+    }
+
+    public void add(CacheKey key) {
+        // read next before current, see rebuild
+        Bits n = next;
+        Bits c = current;
+        int h = key.hashCode();
+        if (c.add(h) > c.capacity) {
+            scheduleRebuild();
+        }
+        if (n != null && n != c) {
+            n.add(h);
+        }
+    }
+
+    public boolean mightContain(CacheKey key) {
+        return current.mightContain(key.hashCode());
+    }
+
+    /**
+     * Notify the filter that all keys in the cache might have been removed.
+     */
+    public void cleared() {
+        scheduleRebuild();
+    }
+
+    /**
+     * Notify the filter that some keys were removed. When enough keys are removed the filter is rebuilt.
+     *
+     * @param count
+     */
+    public void removed(long count) {
+        if (count > 0 && removals.addAndGet(count) > current.inserted.get() / 10) {
+            scheduleRebuild();
+        }
+    }
+
+    public void scheduleRebuild() {
+        if (rebuildScheduled.compareAndSet(false, true)) {
+            ForkJoinPool.commonPool().execute(() -> {
+                rebuildScheduled.set(false);
+                rebuild();
+            });
+        }
+    }
+
+    /**
+     * Rebuilds the filter from the cache's map.
+     * <p>
+     * New filter is published as next before the map is scanned, so writers that put a key into the
+     * map after the scan started also add it to the new filter. Writers read next before current, so
+     * a writer that sees no next either did its put before the scan started or will see the new filter as current.
+     */
+    public synchronized void rebuild() {
+        removals.set(0);
+        Map<CacheKey, Object> map = source.get();
+        Bits b = new Bits(Math.max(expected, 2L * map.size()), fpp);
+        next = b;
+        for (Map.Entry<CacheKey, Object> e : map.entrySet()) {
+            if (!(e.getValue() instanceof SpecialPromise)) {
+                b.add(e.getKey().hashCode());
+            }
+        }
+        current = b;
+        next = null;
+    }
+
+    private static class Bits {
+        private final AtomicLongArray words;
+        private final long numBits;
+        private final int numHashes;
+        private final long capacity;
+        private final AtomicLong inserted = new AtomicLong();
+
+        Bits(long capacity, double fpp) {
+            long m = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            int words = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) >>> 6);
+            this.words = new AtomicLongArray(words);
+            this.numBits = (long) words << 6;
+            this.numHashes = Math.max(1, (int) Math.round((double) numBits / capacity * Math.log(2)));
+            this.capacity = capacity;
+        }
+
+        long add(int hash) {
+            long h1 = mix(hash);
+            long h2 = mix(h1) | 1;
+            for (int i = 0; i < numHashes; i++) {
+                long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+                int idx = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long w = words.get(idx);
+                if ((w & mask) == 0) {
+                    words.getAndUpdate(idx, x -> x | mask);
+                }
+            }
+            return inserted.incrementAndGet();
+        }
+
+        boolean mightContain(int hash) {
+            long h1 = mix(hash);
+            long h2 = mix(h1) | 1;
+            for (int i = 0; i < numHashes; i++) {
+                long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long mix(long x) {
+            x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+            x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return x ^ (x >>> 33);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package memento.caffeine;
+
+import memento.base.CacheKey;
+import memento.base.CountMinSketch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracks the most frequently accessed keys, the slowest loads and the keys with most threads waiting on loads.
+ * <p>
+ * Access frequency is estimated by a count-min sketch, which is periodically halved so it follows recent traffic.
+ * Each top list keeps at most 2k candidates, when that is exceeded, the list is pruned back to k, which
+ * keeps memory bounded. All operations are lock-free.
+ */
+public class KeyProfiler implements KeyProfilerMXBean {
+
+    private final int k;
+    private final int sampleRate;
+    private final CountMinSketch accesses;
+    private final CountMinSketch waits;
+    private final TopK frequent;
+    private final TopK slow;
+    private final TopK contended;
+
+    /**
+     * @param k          size of top lists
+     * @param width      width of the count-min sketch, rounded to a power of 2
+     * @param sampleRate record one in this many accesses
+     */
+    public KeyProfiler(int k, int width, int sampleRate) {
+        this.k = k;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.accesses = new CountMinSketch(width);
+        this.waits = new CountMinSketch(width);
+        this.frequent = new TopK(k);
+        this.slow = new TopK(k);
+        this.contended = new TopK(k);
+    }
+
+    public void accessed(CacheKey key) {
+        if (sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0) {
+            long est = accesses.increment(key.hashCode());
+            frequent.offer(key, est);
+            if (accesses.aged()) {
+                frequent.halve();
+            }
+        }
+    }
+
+    public void loaded(CacheKey key, long nanos) {
+        slow.offer(key, nanos);
+    }
+
+    public void waited(CacheKey key) {
+        long est = waits.increment(key.hashCode());
+        contended.offer(key, est);
+        if (waits.aged()) {
+            contended.halve();
+        }
+    }
+
+    /**
+     * Most frequently accessed keys with estimated (sampled) access count, most frequent first.
+     */
+    public List<Map.Entry<CacheKey, Long>> frequent() {
+        return frequent.top();
+    }
+
+    /**
+     * Keys with slowest loads with load time in nanoseconds, slowest first.
+     */
+    public List<Map.Entry<CacheKey, Long>> slow() {
+        return slow.top();
+    }
+
+    /**
+     * Keys with most threads that waited on another thread's load, with estimated number of waits.
+     */
+    public List<Map.Entry<CacheKey, Long>> contended() {
+        return contended.top();
+    }
+
+    @Override
+    public String[] getFrequentKeys() {
+        return describe(frequent());
+    }
+
+    @Override
+    public String[] getSlowKeys() {
+        return describe(slow());
+    }
+
+    @Override
+    public String[] getContendedKeys() {
+        return describe(contended());
+    }
+
+    private static String[] describe(List<Map.Entry<CacheKey, Long>> entries) {
+        String[] ret = new String[entries.size()];
+        for (int i = 0; i < ret.length; i++) {
+            CacheKey key = entries.get(i).getKey();
+            ret[i] = key.getId() + " " + key.getArgs() + " " + entries.get(i).getValue();
+        }
+        return ret;
+    }
+
+    static class TopK {
+        private final int k;
+        private final ConcurrentHashMap<CacheKey, Long> candidates = new ConcurrentHashMap<>();
+        private final AtomicBoolean pruning = new AtomicBoolean(false);
+        private volatile long floor = 0;
+
+        TopK(int k) {
+            this.k = k;
+        }
+
+        void offer(CacheKey key, long score) {
+            if (score <= floor && !candidates.containsKey(key)) {
+                return;
+            }
+            candidates.merge(key, score, Math::max);
+            if (candidates.size() > 2 * k && pruning.compareAndSet(false, true)) {
+                try {
+                    List<Map.Entry<CacheKey, Long>> sorted = sorted();
+                    for (int i = k; i < sorted.size(); i++) {
+                        candidates.remove(sorted.get(i).getKey(), sorted.get(i).getValue());
+                    }
+                    floor = sorted.get(k - 1).getValue();
+                } finally {
+                    pruning.set(false);
+                }
+            }
+        }
+
+        void halve() {
+            candidates.replaceAll((key, v) -> v >>> 1);
+            floor = floor >>> 1;
+        }
+
+        List<Map.Entry<CacheKey, Long>> top() {
+            List<Map.Entry<CacheKey, Long>> sorted = sorted();
+            return sorted.size() > k ? new ArrayList<>(sorted.subList(0, k)) : sorted;
+        }
+
+        private List<Map.Entry<CacheKey, Long>> sorted() {
+            List<Map.Entry<CacheKey, Long>> ret = new ArrayList<>();
+            for (Map.Entry<CacheKey, Long> e : candidates.entrySet()) {
+                ret.add(Map.entry(e.getKey(), e.getValue()));
+            }
+            ret.sort(Map.Entry.<CacheKey, Long>comparingByValue(Comparator.reverseOrder()));
+            return ret;
+        }
+    }
+}
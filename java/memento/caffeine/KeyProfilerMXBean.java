@@ -0,0 +1,12 @@
+package memento.caffeine;
+
+/**
+ * JMX view of KeyProfiler, each key is described as "segment-id args score".
+ */
+public interface KeyProfilerMXBean {
+    String[] getFrequentKeys();
+
+    String[] getSlowKeys();
+
+    String[] getContendedKeys();
+}
@@ -0,0 +1,112 @@
+package memento.caffeine;
+
+import memento.base.CacheKey;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A tiny direct-mapped cache per thread, in front of the Caffeine cache, for the hottest keys.
+ * <p>
+ * A hit is a thread local lookup and a comparison of the entry's stamp with the cache-wide version, with no writes
+ * to shared memory. Entries are put into a slot by key hash, replacing the previous entry in the slot.
+ * <p>
+ * The version is incremented after every invalidation or overwrite in the cache, which invalidates all entries
+ * in all threads. Every FORWARD_EVERY-th hit of a thread is also read from the backing map, so the cache still sees
+ * accesses of the hottest keys for its eviction policy and access expiry, and entries that were evicted or expired
+ * in the meantime are dropped. With max age set, entries older than max age are not returned.
+ */
+public class L0Cache {
+
+    public static final int FORWARD_EVERY = 16;
+
+    private final int mask;
+    private final long maxAgeNanos;
+    private final AtomicLong version = new AtomicLong();
+    private final ThreadLocal<Slots> slots;
+
+    /**
+     * @param size        number of slots per thread, rounded up to a power of 2
+     * @param maxAgeNanos maximum age of a returned entry, 0 if not limited
+     */
+    public L0Cache(int size, long maxAgeNanos) {
+        int n = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+        this.mask = n - 1;
+        this.maxAgeNanos = maxAgeNanos;
+        this.slots = ThreadLocal.withInitial(() -> new Slots(n));
+    }
+
+    /**
+     * Current version, to be read before reading the value from the cache and passed to put.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Invalidates all entries in all threads. Call after the change to the cache.
+     */
+    public void invalidateAll() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns the value cached by this thread or null.
+     *
+     * @param backing map of the cache, sampled hits are read from it and dropped if it holds a different value
+     */
+    public Object get(CacheKey key, Map<CacheKey, Object> backing) {
+        Slots s = slots.get();
+        int i = key.hashCode() & mask;
+        CacheKey k = s.keys[i];
+        if (k == null || s.stamps[i] != version.get() || !(k == key || k.equals(key))) {
+            return null;
+        }
+        if (maxAgeNanos > 0 && System.nanoTime() - s.times[i] > maxAgeNanos
+                || (++s.hits & (FORWARD_EVERY - 1)) == 0 && backing.get(key) != s.values[i]) {
+            s.keys[i] = null;
+            s.values[i] = null;
+            return null;
+        }
+        return s.values[i];
+    }
+
+    /**
+     * Caches the value for this thread.
+     *
+     * @param stamp version read before the value was read from the cache
+     */
+    public void put(CacheKey key, Object value, long stamp) {
+        Slots s = slots.get();
+        int i = key.hashCode() & mask;
+        s.keys[i] = key;
+        s.values[i] = value;
+        s.stamps[i] = stamp;
+        if (maxAgeNanos > 0) {
+            s.times[i] = System.nanoTime();
+        }
+    }
+
+    public int getSize() {
+        return mask + 1;
+    }
+
+    public long getMaxAgeNanos() {
+        return maxAgeNanos;
+    }
+
+    private static class Slots {
+        private final CacheKey[] keys;
+        private final Object[] values;
+        private final long[] stamps;
+        private final long[] times;
+        private int hits;
+
+        Slots(int n) {
+            keys = new CacheKey[n];
+            values = new Object[n];
+            stamps = new long[n];
+            times = new long[n];
+        }
+    }
+}
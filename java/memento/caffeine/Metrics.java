@@ -0,0 +1,124 @@
+package memento.caffeine;
+
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Per Segment counters of a cache, keyed by Segment id.
+ * <p>
+ * Hits are the hot path, so they can be sampled: with sample rate N, one in N hits is recorded
+ * as N hits. Other events are always recorded.
+ * <p>
+ * If JMX name is given, stats of each Segment are registered as an MXBean named
+ * memento:type=SegmentStats,cache=[name],segment=[id].
+ */
+public class Metrics {
+
+    // Metrics that registered each MXBean, so a replaced cache doesn't unregister MXBeans of its replacement
+    private static final ConcurrentHashMap<ObjectName, Metrics> owners = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Object, SegmentStats> stats = new ConcurrentHashMap<>();
+    private final int sampleRate;
+    private final String jmxName;
+
+    /**
+     * @param sampleRate record one in this many hits, 1 records all hits
+     * @param jmxName    name of the cache in JMX, null to not register MXBeans
+     */
+    public Metrics(int sampleRate, String jmxName) {
+        this.sampleRate = Math.max(1, sampleRate);
+        this.jmxName = jmxName;
+    }
+
+    public SegmentStats forId(Object id) {
+        SegmentStats s = stats.get(id);
+        if (s == null) {
+            s = stats.computeIfAbsent(id, k -> new SegmentStats());
+            if (jmxName != null) {
+                register(id, s);
+            }
+        }
+        return s;
+    }
+
+    public void hit(Object id) {
+        if (sampleRate == 1) {
+            forId(id).hit(1);
+        } else if (ThreadLocalRandom.current().nextInt(sampleRate) == 0) {
+            forId(id).hit(sampleRate);
+        }
+    }
+
+    public void miss(Object id) {
+        forId(id).miss();
+    }
+
+    public void waited(Object id) {
+        forId(id).waited();
+    }
+
+    public void loaded(Object id, long nanos, boolean success) {
+        forId(id).loaded(nanos, success);
+    }
+
+    public void removed(Object id, RemovalCause cause) {
+        if (cause.wasEvicted()) {
+            forId(id).evicted();
+        } else if (cause == RemovalCause.EXPLICIT) {
+            forId(id).invalidated();
+        }
+    }
+
+    public Map<Object, SegmentStats> getStats() {
+        return stats;
+    }
+
+    /**
+     * Unregisters MXBeans of this cache, except those already replaced by another cache with the same JMX name.
+     */
+    public void unregister() {
+        if (jmxName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            synchronized (server) {
+                for (Object id : stats.keySet()) {
+                    try {
+                        ObjectName name = objectName(id);
+                        if (owners.remove(name, this)) {
+                            server.unregisterMBean(name);
+                        }
+                    } catch (JMException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    private void register(Object id, SegmentStats s) {
+        try {
+            ObjectName name = objectName(id);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            // a cache recreated with the same name replaces the MXBeans of the previous one
+            synchronized (server) {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(s, name);
+                owners.put(name, this);
+            }
+        } catch (JMException ignored) {
+            // metrics are still available via getStats
+        }
+    }
+
+    private ObjectName objectName(Object id) throws JMException {
+        return new ObjectName("memento:type=SegmentStats,cache=" + ObjectName.quote(jmxName)
+                + ",segment=" + ObjectName.quote(String.valueOf(id)));
+    }
+}
@@ -0,0 +1,124 @@
+package memento.caffeine;
+
+import clojure.lang.IFn;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import memento.base.CacheKey;
+import memento.base.EntryMeta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Online estimate of the hit ratio a cache would have at different sizes.
+ * <p>
+ * Uses spatially hashed sampling (SHARDS): only keys whose hash falls under a threshold are sampled, which
+ * keeps all accesses of a sampled key. Each sampled access is replayed against ghost caches, which hold only keys
+ * (and weights), with limits scaled by the size ratio and the sample rate. Ghost caches use the same eviction policy as
+ * the cache itself, so they reflect its hit ratio at that size.
+ * <p>
+ * Ghost caches don't simulate expiry.
+ */
+public class MissRatioProfiler {
+
+    private static final long SCALE = 1 << 24;
+
+    private final double[] ratios;
+    private final long limit;
+    private final double sampleRate;
+    private final long threshold;
+    private final List<Cache<CacheKey, Integer>> ghosts;
+    private final LongAdder[] hits;
+    private final LongAdder accesses = new LongAdder();
+    private final IFn kvWeight;
+
+    /**
+     * @param maxSize    size limit of the cache, 0 if the cache is weight limited
+     * @param maxWeight  weight limit of the cache, 0 if the cache is size limited
+     * @param kvWeight   weigher of the cache, a function of segment id, args and value, used if weight limited
+     * @param sampleRate ratio of keys to sample
+     * @param ratios     ratios of the cache limit to estimate hit ratio at
+     */
+    public MissRatioProfiler(long maxSize, long maxWeight, IFn kvWeight, double sampleRate, double[] ratios) {
+        this.ratios = ratios.clone();
+        this.limit = maxWeight > 0 ? maxWeight : maxSize;
+        this.sampleRate = Math.min(1.0, Math.max(sampleRate, 1.0 / SCALE));
+        this.threshold = (long) (this.sampleRate * SCALE);
+        this.kvWeight = maxWeight > 0 ? kvWeight : null;
+        this.ghosts = new ArrayList<>(ratios.length);
+        this.hits = new LongAdder[ratios.length];
+        for (int i = 0; i < ratios.length; i++) {
+            Caffeine<Object, Object> b = Caffeine.newBuilder().executor(Runnable::run);
+            if (maxWeight > 0) {
+                ghosts.add(b.maximumWeight(Math.max(1, (long) (maxWeight * ratios[i] * this.sampleRate)))
+                        .weigher((CacheKey k, Integer v) -> v)
+                        .build());
+            } else {
+                ghosts.add(b.maximumSize(Math.max(1, (long) (maxSize * ratios[i] * this.sampleRate))).build());
+            }
+            hits[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records an access of the key, value is used for weight of entry.
+     */
+    public void access(CacheKey key, Object value) {
+        if ((mix(key.hashCode()) & (SCALE - 1)) >= threshold) {
+            return;
+        }
+        accesses.increment();
+        Integer weight = null;
+        for (int i = 0; i < ghosts.size(); i++) {
+            if (ghosts.get(i).getIfPresent(key) != null) {
+                hits[i].increment();
+            } else {
+                if (weight == null) {
+                    weight = kvWeight == null ? 1 : ((Number) kvWeight.invoke(key.getId(), key.getArgs(), EntryMeta.unwrap(value))).intValue();
+                }
+                ghosts.get(i).put(key, weight);
+            }
+        }
+    }
+
+    public double[] getRatios() {
+        return ratios.clone();
+    }
+
+    /**
+     * Cache limit the ratios are relative to.
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Number of sampled accesses.
+     */
+    public long getAccesses() {
+        return accesses.sum();
+    }
+
+    /**
+     * Estimated hit ratio at each of the ratios.
+     */
+    public double[] getHitRatios() {
+        long total = accesses.sum();
+        double[] ret = new double[ratios.length];
+        for (int i = 0; i < ratios.length; i++) {
+            ret[i] = total == 0 ? 0.0 : (double) hits[i].sum() / total;
+        }
+        return ret;
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+}
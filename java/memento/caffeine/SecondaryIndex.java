@@ -1,6 +1,5 @@
 package memento.caffeine;
 
-import clojure.lang.ISeq;
 import memento.base.CacheKey;
 import memento.base.EntryMeta;
 
@@ -34,13 +33,11 @@ public class SecondaryIndex {
     public void add(CacheKey k, Object v) {
         if (v instanceof EntryMeta) {
             EntryMeta e = ((EntryMeta) v);
-            ISeq s = e.getTagIdents().seq();
-            while (s != null) {
-                Set<IndexEntry> cacheKeys = lookup.computeIfAbsent(s.first(), key -> new HashSet<>());
+            for (int i = 0, n = e.identCount(); i < n; i++) {
+                Set<IndexEntry> cacheKeys = lookup.computeIfAbsent(e.ident(i), key -> new HashSet<>());
                 synchronized (cacheKeys) {
                     cacheKeys.add(new IndexEntry(cacheKeys, k));
                 }
-                s = s.next();
             }
         }
     }
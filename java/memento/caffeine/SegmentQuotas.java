@@ -0,0 +1,224 @@
+package memento.caffeine;
+
+import clojure.lang.IPersistentMap;
+import clojure.lang.Keyword;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.Weigher;
+import memento.base.CacheKey;
+import memento.base.Segment;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Limits usage of each Segment id in a shared cache, in entries, or in weight if the cache is weighted.
+ * <p>
+ * A Segment's quota comes from its quota setting, or the quota map of the cache (by id or :default).
+ * With fair share, once the cache is filled to WATERMARK of its maximum, Segments using more than an equal share of
+ * the maximum are trimmed, until the cache is back under WATERMARK, so other Segments get room to grow
+ * into their share.
+ * <p>
+ * Segments over their limit are trimmed by the thread that added the entry, removing that Segment's coldest entries.
+ * The cache must be bounded by size or weight, so coldest entries can be found without scanning the whole cache.
+ * Usage is tracked from additions and from the removal listener, which needs a direct executor to keep it exact.
+ */
+public class SegmentQuotas {
+
+    public static final Keyword QUOTA = Keyword.intern("memento.caffeine", "quota");
+    public static final Keyword DEFAULT = Keyword.intern("default");
+    public static final double WATERMARK = 0.9;
+    private static final int SCAN_FACTOR = 64;
+
+    private final IPersistentMap limits;
+    private final boolean fairShare;
+    private final Weigher<CacheKey, Object> weigher;
+    private final ConcurrentHashMap<Object, Usage> usages = new ConcurrentHashMap<>();
+    private final AtomicLong total = new AtomicLong();
+    // number of ids with usage above 0
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile Cache<CacheKey, Object> cache;
+
+    /**
+     * @param limits    map of Segment id to quota, :default key for Segments not in the map, can be null
+     * @param fairShare trim Segments over their fair share when the cache is nearly full
+     * @param weigher   weigher of the cache, null if the cache is not weighted
+     */
+    public SegmentQuotas(IPersistentMap limits, boolean fairShare, Weigher<CacheKey, Object> weigher) {
+        this.limits = limits;
+        this.fairShare = fairShare;
+        this.weigher = weigher;
+    }
+
+    void bind(Cache<CacheKey, Object> cache) {
+        this.cache = cache;
+    }
+
+    private long weigh(CacheKey key, Object value) {
+        return weigher == null || value == null ? 1 : weigher.weigh(key, value);
+    }
+
+    private long limitOf(Object id, Segment segment) {
+        Object l = segment == null ? null : segment.getConf().valAt(QUOTA);
+        if (l == null && limits != null) {
+            l = limits.valAt(id, limits.valAt(DEFAULT));
+        }
+        return l == null ? 0 : ((Number) l).longValue();
+    }
+
+    /**
+     * Account for an added entry, segment can be null if not known. Trims the Segment if over its limit.
+     *
+     * @return number of entries removed
+     */
+    public int added(Segment segment, CacheKey key, Object value) {
+        Object id = key.getId();
+        Usage u = usages.computeIfAbsent(id, k -> new Usage(limitOf(k, segment)));
+        if (segment != null && !u.resolved) {
+            u.limit = limitOf(id, segment);
+            u.resolved = true;
+        }
+        long w = weigh(key, value);
+        long used = u.used.addAndGet(w);
+        if (used > 0 && used - w <= 0) {
+            active.incrementAndGet();
+        }
+        long t = total.addAndGet(w);
+        long excess = u.limit > 0 ? used - u.limit : 0;
+        if (fairShare && cache != null) {
+            Optional<Policy.Eviction<CacheKey, Object>> eviction = cache.policy().eviction();
+            if (eviction.isPresent()) {
+                long watermark = (long) (eviction.get().getMaximum() * WATERMARK);
+                if (t > watermark) {
+                    long share = eviction.get().getMaximum() / Math.max(1, active.get());
+                    excess = Math.max(excess, Math.min(used - share, t - watermark));
+                }
+            }
+        }
+        return excess > 0 ? trim(key, u, excess) : 0;
+    }
+
+    /**
+     * Account for a removed entry.
+     */
+    public void removed(CacheKey key, Object value) {
+        Usage u = usages.get(key.getId());
+        if (u != null) {
+            long w = weigh(key, value);
+            long used = u.used.addAndGet(-w);
+            if (used <= 0 && used + w > 0) {
+                active.decrementAndGet();
+            }
+            total.addAndGet(-w);
+        }
+    }
+
+    private int trim(CacheKey added, Usage u, long excess) {
+        Object id = added.getId();
+        Cache<CacheKey, Object> c = this.cache;
+        if (c == null || !u.trimming.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            List<Map.Entry<CacheKey, Object>> victims = new ArrayList<>();
+            Optional<Policy.Eviction<CacheKey, Object>> eviction = c.policy().eviction();
+            if (eviction.isPresent()) {
+                // coldest entries are streamed under the eviction lock, so collect them and remove them after
+                long limit = SCAN_FACTOR * excess + 1024;
+                victims = eviction.get().coldest(s -> {
+                    long[] found = {0};
+                    return s.limit(limit)
+                            .filter(e -> isVictim(e, id, added))
+                            .takeWhile(e -> found[0] < excess)
+                            .peek(e -> found[0] += weigh(e.getKey(), e.getValue()))
+                            .map(e -> Map.entry(e.getKey(), e.getValue()))
+                            .collect(Collectors.toList());
+                });
+            }
+            long found = 0;
+            Set<CacheKey> victimKeys = new HashSet<>();
+            for (Map.Entry<CacheKey, Object> e : victims) {
+                found += weigh(e.getKey(), e.getValue());
+                victimKeys.add(e.getKey());
+            }
+            if (found < excess) {
+                // not enough among coldest entries, take any
+                Iterator<Map.Entry<CacheKey, Object>> iter = c.asMap().entrySet().iterator();
+                while (found < excess && iter.hasNext()) {
+                    Map.Entry<CacheKey, Object> e = iter.next();
+                    if (isVictim(e, id, added) && victimKeys.add(e.getKey())) {
+                        victims.add(Map.entry(e.getKey(), e.getValue()));
+                        found += weigh(e.getKey(), e.getValue());
+                    }
+                }
+            }
+            ConcurrentMap<CacheKey, Object> map = c.asMap();
+            int removed = 0;
+            for (Map.Entry<CacheKey, Object> e : victims) {
+                if (map.remove(e.getKey(), e.getValue())) {
+                    removed++;
+                }
+            }
+            u.trimmed.add(removed);
+            return removed;
+        } finally {
+            u.trimming.set(false);
+        }
+    }
+
+    private static boolean isVictim(Map.Entry<CacheKey, Object> e, Object id, CacheKey added) {
+        return id.equals(e.getKey().getId()) && !(e.getValue() instanceof SpecialPromise) && !added.equals(e.getKey());
+    }
+
+    /**
+     * Current usage of the Segment id, in entries or weight.
+     */
+    public long getUsage(Object id) {
+        Usage u = usages.get(id);
+        return u == null ? 0 : u.used.get();
+    }
+
+    /**
+     * Quota of the Segment id, 0 if not limited.
+     */
+    public long getLimit(Object id) {
+        Usage u = usages.get(id);
+        return u == null ? limitOf(id, null) : u.limit;
+    }
+
+    /**
+     * Number of entries of the Segment id removed by trimming.
+     */
+    public long getTrimmed(Object id) {
+        Usage u = usages.get(id);
+        return u == null ? 0 : u.trimmed.sum();
+    }
+
+    public Iterable<Object> getIds() {
+        return usages.keySet();
+    }
+
+    static class Usage {
+        private final AtomicLong used = new AtomicLong();
+        private final AtomicBoolean trimming = new AtomicBoolean(false);
+        private final LongAdder trimmed = new LongAdder();
+        private volatile long limit;
+        private volatile boolean resolved;
+
+        Usage(long limit) {
+            this.limit = limit;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package memento.caffeine;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for a single Segment (memoized function) in a cache.
+ * <p>
+ * Load times are recorded in a histogram with power of 2 buckets, bucket i counts loads that
+ * took less than 2^i nanoseconds (and at least 2^(i-1)).
+ */
+public class SegmentStats implements SegmentStatsMXBean {
+
+    public static final int BUCKETS = 64;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loadTime = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+    public SegmentStats() {
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = new LongAdder();
+        }
+    }
+
+    void hit(long n) {
+        hits.add(n);
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void waited() {
+        waits.increment();
+    }
+
+    void loaded(long nanos, boolean success) {
+        loads.increment();
+        if (!success) {
+            loadFailures.increment();
+        }
+        loadTime.add(nanos);
+        histogram[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)))].increment();
+    }
+
+    void evicted() {
+        evictions.increment();
+    }
+
+    void invalidated() {
+        invalidations.increment();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getLoadFailures() {
+        return loadFailures.sum();
+    }
+
+    @Override
+    public long getTotalLoadTime() {
+        return loadTime.sum();
+    }
+
+    @Override
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public long[] getLoadTimeHistogram() {
+        long[] ret = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            ret[i] = histogram[i].sum();
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,24 @@
+package memento.caffeine;
+
+/**
+ * JMX view of SegmentStats.
+ */
+public interface SegmentStatsMXBean {
+    long getHits();
+
+    long getMisses();
+
+    long getLoads();
+
+    long getLoadFailures();
+
+    long getTotalLoadTime();
+
+    long getWaits();
+
+    long getEvictions();
+
+    long getInvalidations();
+
+    long[] getLoadTimeHistogram();
+}
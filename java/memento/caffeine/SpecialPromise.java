@@ -1,8 +1,9 @@
 package memento.caffeine;
 
-import clojure.lang.ISeq;
 import memento.base.EntryMeta;
 import memento.base.LockoutMap;
+import memento.jfr.RecursiveLoadEvent;
+import memento.jfr.WaitEvent;
 
 import java.util.HashSet;
 import java.util.concurrent.CountDownLatch;
@@ -38,11 +39,16 @@ public class SpecialPromise {
 
     public Object await(Object stackOverflowContext) throws Throwable {
         if (thread == Thread.currentThread()) {
+            RecursiveLoadEvent.emit(stackOverflowContext);
             throw new StackOverflowError("Recursive load on key: " + stackOverflowContext);
         }
         Object r;
         if ((r = result) == null) {
+            WaitEvent event = WaitEvent.start();
             d.await();
+            if (event != null) {
+                event.end(stackOverflowContext);
+            }
             r = result;
         }
         if (r instanceof AltResult) {
@@ -117,12 +123,10 @@ public class SpecialPromise {
 
     private boolean hasInvalidatedTagId(EntryMeta entryMeta) {
         synchronized (invalidatedIds) {
-            ISeq s = entryMeta.getTagIdents().seq();
-            while (s != null) {
-                if (invalidatedIds.contains(s.first())) {
+            for (int i = 0, n = entryMeta.identCount(); i < n; i++) {
+                if (invalidatedIds.contains(entryMeta.ident(i))) {
                     return true;
                 }
-                s = s.next();
             }
         }
         return false;
@@ -0,0 +1,137 @@
+package memento.caffeine;
+
+import clojure.lang.IPersistentMap;
+import clojure.lang.ISeq;
+import clojure.lang.MapEntry;
+import clojure.lang.PersistentArrayMap;
+import clojure.lang.RT;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import memento.base.CacheKey;
+import memento.base.Segment;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partitions keys between N independent Caffeine caches by key hash, so loads of different keys
+ * don't contend on a single cache's write buffer and maintenance lock.
+ * <p>
+ * Each stripe has its own SecondaryIndex and KeyFilter. Invalidation of a Segment, all entries or tag ids
+ * is done on all stripes, stats are summed over stripes.
+ */
+public class StripedCache {
+
+    private final CaffeineCache_[] stripes;
+    private final int shift;
+
+    /**
+     * @param stripes caches with the same key function, their number must be a power of 2
+     */
+    public StripedCache(CaffeineCache_[] stripes) {
+        if (Integer.bitCount(stripes.length) != 1) {
+            throw new IllegalArgumentException("Number of stripes must be a power of 2, got " + stripes.length);
+        }
+        this.stripes = stripes;
+        this.shift = 32 - Integer.numberOfTrailingZeros(stripes.length);
+    }
+
+    /**
+     * Index of the key's stripe, chosen by high bits of the mixed hash, so entries within a stripe
+     * still differ in low bits of the hash, which Caffeine uses.
+     */
+    private int index(CacheKey key) {
+        return (int) (((key.hashCode() * 0x9E3779B9) & 0xFFFFFFFFL) >>> shift);
+    }
+
+    private CaffeineCache_ stripe(CacheKey key) {
+        return stripes[index(key)];
+    }
+
+    public Object cached(Segment segment, ISeq args) throws Throwable {
+        CacheKey key = stripes[0].key(segment, args);
+        return stripe(key).load(segment, args, key);
+    }
+
+    public Object cached(Segment segment, ISeq args, CacheKey segmentKey) throws Throwable {
+        CacheKey key = stripes[0].ownKey(segmentKey);
+        return stripe(key).load(segment, args, key);
+    }
+
+    public Object ifCached(Segment segment, ISeq args) throws Throwable {
+        return getIfPresent(stripes[0].key(segment, args));
+    }
+
+    public Object ifCached(Segment segment, ISeq args, CacheKey segmentKey) throws Throwable {
+        return getIfPresent(stripes[0].ownKey(segmentKey));
+    }
+
+    private Object getIfPresent(CacheKey key) throws Throwable {
+        return stripe(key).getIfPresent(key);
+    }
+
+    public boolean mightContain(Segment segment, ISeq args, CacheKey segmentKey) {
+        return stripe(stripes[0].ownKey(segmentKey)).mightContain(segment, args, segmentKey);
+    }
+
+    public void invalidate(Segment segment) {
+        for (CaffeineCache_ c : stripes) {
+            c.invalidate(segment);
+        }
+    }
+
+    public void invalidate(Segment segment, ISeq args) {
+        stripe(stripes[0].key(segment, args)).invalidate(segment, args);
+    }
+
+    public void invalidateAll() {
+        for (CaffeineCache_ c : stripes) {
+            c.invalidateAll();
+        }
+    }
+
+    public void invalidateIds(Iterable<Object> ids) {
+        for (CaffeineCache_ c : stripes) {
+            c.invalidateIds(ids);
+        }
+    }
+
+    public void addEntries(Segment segment, IPersistentMap argsToVals) {
+        IPersistentMap[] parts = new IPersistentMap[stripes.length];
+        for (Object o : argsToVals) {
+            MapEntry entry = (MapEntry) o;
+            int i = index(stripes[0].key(segment, RT.seq(entry.getKey())));
+            parts[i] = (parts[i] == null ? PersistentArrayMap.EMPTY : parts[i]).assoc(entry.getKey(), entry.getValue());
+        }
+        for (int i = 0; i < stripes.length; i++) {
+            if (parts[i] != null) {
+                stripes[i].addEntries(segment, parts[i]);
+            }
+        }
+    }
+
+    public void loadData(Map<?, ?> map) {
+        Map<CaffeineCache_, Map<Object, Object>> parts = new HashMap<>();
+        map.forEach((Object k, Object v) -> {
+            List<?> list = (List<?>) k;
+            CacheKey key = new CacheKey(list.get(0), list.get(1));
+            parts.computeIfAbsent(stripe(key), c -> new HashMap<>()).put(k, v);
+        });
+        parts.forEach(CaffeineCache_::loadData);
+    }
+
+    /**
+     * Stats summed over stripes.
+     */
+    public CacheStats stats() {
+        CacheStats ret = CacheStats.empty();
+        for (CaffeineCache_ c : stripes) {
+            ret = ret.plus(c.stats());
+        }
+        return ret;
+    }
+
+    public CaffeineCache_[] getStripes() {
+        return stripes.clone();
+    }
+}
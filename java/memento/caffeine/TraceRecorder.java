@@ -0,0 +1,137 @@
+package memento.caffeine;
+
+import clojure.lang.IFn;
+import memento.base.CacheKey;
+import memento.base.EntryMeta;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring buffer of cache accesses: segment, key hash, time, load time and value weight.
+ * <p>
+ * When the buffer is full, the oldest records are overwritten. Records are written without locking,
+ * so a dump taken while recording is in progress might contain a few partially written records.
+ * <p>
+ * Dump format (DataOutputStream):
+ * <pre>
+ * int magic, int version
+ * int segment count, segment ids as UTF strings
+ * int record count, records: int segment, int key hash, long time (ns since start), long load ns (-1 for hits), int weight
+ * </pre>
+ */
+public class TraceRecorder {
+
+    public static final int MAGIC = 0x4D4D5452;
+    public static final int VERSION = 1;
+
+    private final int mask;
+    private final int[] segments;
+    private final int[] keys;
+    private final long[] times;
+    private final long[] loads;
+    private final int[] weights;
+    private final AtomicLong cursor = new AtomicLong();
+
+    private final ConcurrentHashMap<Object, Integer> segmentIdx = new ConcurrentHashMap<>();
+    private final List<Object> segmentIds = new ArrayList<>();
+
+    private final IFn weigher;
+    private final long start = System.nanoTime();
+
+    /**
+     * @param capacity max number of records, rounded up to a power of 2
+     * @param weigher  a function of segment id, args and value that returns the weight of the value, if null, weight is 1
+     */
+    public TraceRecorder(int capacity, IFn weigher) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.mask = size - 1;
+        this.segments = new int[size];
+        this.keys = new int[size];
+        this.times = new long[size];
+        this.loads = new long[size];
+        this.weights = new int[size];
+        this.weigher = weigher;
+    }
+
+    public void hit(CacheKey key) {
+        record(key, -1, 0);
+    }
+
+    public void loaded(CacheKey key, long nanos, Object value) {
+        int w = weigher == null ? 1 : ((Number) weigher.invoke(key.getId(), key.getArgs(), EntryMeta.unwrap(value))).intValue();
+        record(key, nanos, w);
+    }
+
+    private void record(CacheKey key, long loadNanos, int weight) {
+        int i = (int) (cursor.getAndIncrement() & mask);
+        segments[i] = segment(key.getId());
+        keys[i] = key.hashCode();
+        times[i] = System.nanoTime() - start;
+        loads[i] = loadNanos;
+        weights[i] = weight;
+    }
+
+    private int segment(Object id) {
+        Integer idx = segmentIdx.get(id);
+        if (idx == null) {
+            synchronized (segmentIds) {
+                idx = segmentIdx.get(id);
+                if (idx == null) {
+                    idx = segmentIds.size();
+                    segmentIds.add(id);
+                    segmentIdx.put(id, idx);
+                }
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Number of records in the buffer.
+     */
+    public int size() {
+        return (int) Math.min(cursor.get(), mask + 1);
+    }
+
+    /**
+     * Total number of recorded accesses, including overwritten ones.
+     */
+    public long recorded() {
+        return cursor.get();
+    }
+
+    /**
+     * Writes records from oldest to newest to the stream.
+     */
+    public void dump(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        List<Object> ids;
+        synchronized (segmentIds) {
+            ids = new ArrayList<>(segmentIds);
+        }
+        dos.writeInt(ids.size());
+        for (Object id : ids) {
+            dos.writeUTF(String.valueOf(id));
+        }
+        long end = cursor.get();
+        int count = (int) Math.min(end, mask + 1);
+        dos.writeInt(count);
+        for (long c = end - count; c < end; c++) {
+            int i = (int) (c & mask);
+            dos.writeInt(segments[i]);
+            dos.writeInt(keys[i]);
+            dos.writeLong(times[i]);
+            dos.writeLong(loads[i]);
+            dos.writeInt(weights[i]);
+        }
+        dos.flush();
+    }
+}
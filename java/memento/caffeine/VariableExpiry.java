@@ -0,0 +1,94 @@
+package memento.caffeine;
+
+import clojure.lang.PersistentArrayMap;
+import memento.base.CacheKey;
+import memento.base.Durations;
+import memento.base.EntryMeta;
+
+/**
+ * Caffeine expiry that evaluates user's Expiry once, when the entry is stored, instead of on every read.
+ * <p>
+ * The cache passes values through withExpiry before storing them, which stores the evaluated durations in
+ * EntryMeta, wrapping the value if needed. Reads then only read a field. Values stored without withExpiry
+ * are evaluated on each write and read, by calling Expiry.
+ */
+public class VariableExpiry implements com.github.benmanes.caffeine.cache.Expiry<CacheKey, Object> {
+
+    private final Expiry expiry;
+    private final long readDefault;
+    private final long writeDefault;
+
+    /**
+     * @param expiry       user's expiry
+     * @param readDefault  expiry after read if Expiry.fade returns nil, -1 keeps the current expiry
+     * @param writeDefault expiry after write if Expiry returns nil
+     */
+    public VariableExpiry(Expiry expiry, long readDefault, long writeDefault) {
+        this.expiry = expiry;
+        this.readDefault = readDefault;
+        this.writeDefault = writeDefault;
+    }
+
+    private long afterWrite(CacheKey k, Object v) {
+        Object ret = expiry.ttl(PersistentArrayMap.EMPTY, k.getArgs(), v);
+        if (ret == null) {
+            ret = expiry.fade(PersistentArrayMap.EMPTY, k.getArgs(), v);
+        }
+        return ret == null ? writeDefault : Durations.nanos(ret);
+    }
+
+    private long afterRead(CacheKey k, Object v) {
+        Object ret = expiry.fade(PersistentArrayMap.EMPTY, k.getArgs(), v);
+        return ret == null ? readDefault : Durations.nanos(ret);
+    }
+
+    /**
+     * Returns the value to store, with expiry evaluated, wrapping it into EntryMeta if needed.
+     */
+    public Object withExpiry(CacheKey k, Object value) {
+        long write = afterWrite(k, value);
+        long read = afterRead(k, value);
+        EntryMeta ret;
+        if (value instanceof EntryMeta && value != EntryMeta.NIL) {
+            EntryMeta em = (EntryMeta) value;
+            if (em.getExpireAfterWrite() < 0) {
+                ret = em;
+            } else {
+                // already evaluated by another cache, e.g. a tier of a chain cache
+                ret = new EntryMeta(em);
+            }
+        } else {
+            ret = new EntryMeta(value == EntryMeta.NIL ? null : value, false, null);
+        }
+        ret.setExpiry(write, read);
+        return ret;
+    }
+
+    private static long evaluatedWrite(Object v) {
+        return v instanceof EntryMeta ? ((EntryMeta) v).getExpireAfterWrite() : -1;
+    }
+
+    @Override
+    public long expireAfterCreate(CacheKey k, Object v, long currentTime) {
+        if (v instanceof SpecialPromise) {
+            return Long.MAX_VALUE;
+        }
+        return expireAfterUpdate(k, v, currentTime, Long.MAX_VALUE);
+    }
+
+    @Override
+    public long expireAfterUpdate(CacheKey k, Object v, long currentTime, long currentDuration) {
+        long write = evaluatedWrite(v);
+        return write >= 0 ? write : afterWrite(k, v);
+    }
+
+    @Override
+    public long expireAfterRead(CacheKey k, Object v, long currentTime, long currentDuration) {
+        if (v instanceof SpecialPromise) {
+            return currentDuration;
+        }
+        // if fade is not specified, keep current validity (probably set by ttl)
+        long read = evaluatedWrite(v) >= 0 ? ((EntryMeta) v).getExpireAfterRead() : afterRead(k, v);
+        return read >= 0 ? read : currentDuration;
+    }
+}
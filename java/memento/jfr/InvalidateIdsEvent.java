@@ -0,0 +1,48 @@
+package memento.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Invalidation of tag ids in a cache, with the number of entries it removed.
+ */
+@Name("memento.InvalidateIds")
+@Label("Tag Invalidation")
+@Category("Memento")
+@Description("Invalidation of entries by tag ids in a single cache")
+@Enabled(false)
+public class InvalidateIdsEvent extends jdk.jfr.Event {
+
+    @Label("Tag Ids")
+    public int ids;
+
+    @Label("Entries")
+    public int entries;
+
+    @Label("Loads Notified")
+    public int loads;
+
+    /**
+     * Returns a started event if the event is enabled, otherwise null.
+     */
+    public static InvalidateIdsEvent start() {
+        InvalidateIdsEvent e = new InvalidateIdsEvent();
+        if (!e.isEnabled()) {
+            return null;
+        }
+        e.begin();
+        return e;
+    }
+
+    public void end(int ids, int entries, int loads) {
+        if (shouldCommit()) {
+            this.ids = ids;
+            this.entries = entries;
+            this.loads = loads;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package memento.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A single execution of a cached function by a cache.
+ */
+@Name("memento.Load")
+@Label("Cache Load")
+@Category("Memento")
+@Description("Execution of a memoized function on a cache miss")
+@Enabled(false)
+@StackTrace(false)
+public class LoadEvent extends jdk.jfr.Event {
+
+    public static final String LOADED = "loaded";
+    public static final String NO_CACHE = "no-cache";
+    public static final String INVALIDATED = "invalidated";
+    public static final String FAILED = "failed";
+
+    @Label("Segment")
+    public String segment;
+
+    @Label("Outcome")
+    public String outcome;
+
+    /**
+     * Returns a started event if the event is enabled, otherwise null.
+     */
+    public static LoadEvent start() {
+        LoadEvent e = new LoadEvent();
+        if (!e.isEnabled()) {
+            return null;
+        }
+        e.begin();
+        return e;
+    }
+
+    public void end(Object segmentId, String outcome) {
+        if (shouldCommit()) {
+            this.segment = String.valueOf(segmentId);
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
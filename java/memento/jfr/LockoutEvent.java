@@ -0,0 +1,48 @@
+package memento.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A bulk invalidation of tag ids, from start to end of lockout.
+ */
+@Name("memento.Lockout")
+@Label("Tag Invalidation Lockout")
+@Category("Memento")
+@Description("Duration of a lockout of tag ids during bulk invalidation")
+@Enabled(false)
+public class LockoutEvent extends jdk.jfr.Event {
+
+    @Label("Lockout Id")
+    public String lockout;
+
+    @Label("Tag Ids")
+    public int ids;
+
+    /**
+     * Returns a started event if the event is enabled, otherwise null.
+     */
+    public static LockoutEvent start() {
+        LockoutEvent e = new LockoutEvent();
+        if (!e.isEnabled()) {
+            return null;
+        }
+        e.begin();
+        return e;
+    }
+
+    public void end(Object lockoutId, Iterable<Object> tagsAndIds) {
+        if (shouldCommit()) {
+            int n = 0;
+            for (Object ignored : tagsAndIds) {
+                n++;
+            }
+            this.lockout = String.valueOf(lockoutId);
+            this.ids = n;
+            commit();
+        }
+    }
+}
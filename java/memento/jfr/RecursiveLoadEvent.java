@@ -0,0 +1,29 @@
+package memento.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A load that needs its own result, which would deadlock, so an error is thrown instead.
+ */
+@Name("memento.RecursiveLoad")
+@Label("Recursive Cache Load")
+@Category("Memento")
+@Description("Memoized function called itself with the same key")
+@Enabled(false)
+public class RecursiveLoadEvent extends jdk.jfr.Event {
+
+    @Label("Key")
+    public String key;
+
+    public static void emit(Object key) {
+        RecursiveLoadEvent e = new RecursiveLoadEvent();
+        if (e.shouldCommit()) {
+            e.key = String.valueOf(key);
+            e.commit();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package memento.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A thread waiting for a load in progress on another thread.
+ */
+@Name("memento.Wait")
+@Label("Cache Load Wait")
+@Category("Memento")
+@Description("Waiting for another thread to load the same key")
+@Enabled(false)
+public class WaitEvent extends jdk.jfr.Event {
+
+    @Label("Key")
+    public String key;
+
+    /**
+     * Returns a started event if the event is enabled, otherwise null.
+     */
+    public static WaitEvent start() {
+        WaitEvent e = new WaitEvent();
+        if (!e.isEnabled()) {
+            return null;
+        }
+        e.begin();
+        return e;
+    }
+
+    public void end(Object key) {
+        if (shouldCommit()) {
+            this.key = String.valueOf(key);
+            commit();
+        }
+    }
+}
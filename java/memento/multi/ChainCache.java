@@ -0,0 +1,199 @@
+package memento.multi;
+
+import clojure.lang.AFn;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ISeq;
+import clojure.lang.PersistentArrayMap;
+import memento.base.CacheKey;
+import memento.base.EntryMeta;
+import memento.base.ICache;
+import memento.base.Population;
+import memento.base.Segment;
+
+/**
+ * A chain of N caches, ordered from fastest to slowest.
+ * <p>
+ * Entry is fetched from the first cache, on miss the readable tiers are asked in order if they have
+ * the entry, if none does, the value is calculated. The value is then written into the first cache and
+ * to the tiers that missed, according to their write policy. Asynchronous writes go through a write-behind
+ * queue, so the caller returns as soon as the first cache has the value.
+ * <p>
+ * Invalidation operations affect all tiers. Other operations only affect the first cache.
+ */
+public class ChainCache implements ICache {
+
+    public static final int WRITE_NONE = 0;
+    public static final int WRITE_SYNC = 1;
+    public static final int WRITE_ASYNC = 2;
+
+    private final ICache[] tiers;
+    private final boolean[] read;
+    private final int[] write;
+    private final WriteBehind writeBehind;
+    private final IPersistentMap conf;
+    private final Object absent;
+
+    public ChainCache(ICache[] tiers, boolean[] read, int[] write, WriteBehind writeBehind, IPersistentMap conf, Object absent) {
+        this.tiers = tiers;
+        this.read = read;
+        this.write = write;
+        this.writeBehind = writeBehind;
+        this.conf = conf;
+        this.absent = absent;
+    }
+
+    @Override
+    public IPersistentMap conf() {
+        return conf;
+    }
+
+    @Override
+    public Object cached(Segment segment, ISeq args) {
+        return cached(segment, args, segment.cacheKey(args));
+    }
+
+    @Override
+    public Object cached(Segment segment, ISeq args, CacheKey key) {
+        return tiers[0].cached(segment.withFn(new ChainLoad(segment, key)), args, key);
+    }
+
+    @Override
+    public Object ifCached(Segment segment, ISeq args) {
+        return ifCached(segment, args, segment.cacheKey(args));
+    }
+
+    @Override
+    public Object ifCached(Segment segment, ISeq args, CacheKey key) {
+        for (int i = 0; i < tiers.length; i++) {
+            if ((i == 0 || read[i]) && tiers[i].mightContain(segment, args, key)) {
+                Object v = tiers[i].ifCached(segment, args, key);
+                if (v != absent) {
+                    return v;
+                }
+            }
+        }
+        return absent;
+    }
+
+    @Override
+    public boolean mightContain(Segment segment, ISeq args, CacheKey key) {
+        for (int i = 0; i < tiers.length; i++) {
+            if ((i == 0 || read[i]) && tiers[i].mightContain(segment, args, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public ICache invalidate(Segment segment) {
+        writeBehind.exclusive(segment, null, () -> {
+            for (ICache tier : tiers) {
+                tier.invalidate(segment);
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public ICache invalidate(Segment segment, ISeq args) {
+        writeBehind.exclusive(segment, args, () -> {
+            for (ICache tier : tiers) {
+                tier.invalidate(segment, args);
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public ICache invalidateAll() {
+        writeBehind.exclusive(() -> {
+            for (ICache tier : tiers) {
+                tier.invalidateAll();
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public ICache invalidateIds(Iterable<Object> ids) {
+        writeBehind.flushThen(() -> {
+            for (ICache tier : tiers) {
+                tier.invalidateIds(ids);
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public ICache addEntries(Segment segment, IPersistentMap argsToVals) {
+        tiers[0].addEntries(segment, argsToVals);
+        return this;
+    }
+
+    @Override
+    public IPersistentMap asMap() {
+        return tiers[0].asMap();
+    }
+
+    @Override
+    public IPersistentMap asMap(Segment segment) {
+        return tiers[0].asMap(segment);
+    }
+
+    public ICache[] getTiers() {
+        return tiers.clone();
+    }
+
+    public WriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    private class ChainLoad extends ArgsFn {
+
+        private final Segment segment;
+        private final CacheKey key;
+
+        public ChainLoad(Segment segment, CacheKey key) {
+            this.segment = segment;
+            this.key = key;
+        }
+
+        @Override
+        public Object applyTo(ISeq arglist) {
+            long generation = writeBehind.generation();
+            int found = tiers.length;
+            Object v = absent;
+            for (int i = 1; i < tiers.length; i++) {
+                if (read[i] && tiers[i].mightContain(segment, arglist, key)) {
+                    v = tiers[i].ifCached(segment, arglist, key);
+                    if (v != absent) {
+                        found = i;
+                        break;
+                    }
+                }
+            }
+            if (v == absent) {
+                v = AFn.applyToHelper(segment.getF(), arglist);
+            }
+            if (v instanceof EntryMeta && ((EntryMeta) v).isNoCache() || !Population.isPopulating()) {
+                return v;
+            }
+            // populate the tiers that missed, unless the entry was invalidated while loading
+            for (int i = 1; i < found; i++) {
+                switch (write[i]) {
+                    case WRITE_SYNC:
+                        if (generation == writeBehind.generation()) {
+                            tiers[i].addEntries(segment, PersistentArrayMap.EMPTY.assoc(arglist, v));
+                        }
+                        break;
+                    case WRITE_ASYNC:
+                        writeBehind.submit(tiers[i], segment, arglist, v, generation);
+                        break;
+                    default:
+                }
+            }
+            return v;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package memento.multi;
 
 import clojure.lang.IPersistentMap;
 import clojure.lang.ISeq;
+import memento.base.CacheKey;
 import memento.base.ICache;
 import memento.base.Segment;
 
@@ -11,9 +12,21 @@ public class DaisyChainCache extends MultiCache {
         super(cache, upstream, conf, absent);
     }
 
+    public DaisyChainCache(ICache cache, ICache upstream, IPersistentMap conf, Object absent, UpstreamGuard guard) {
+        super(cache, upstream, conf, absent, guard);
+    }
+
     @Override
     public Object cached(Segment segment, ISeq args) {
-        Object c = cache.ifCached(segment, args);
-        return c == absent ? upstream.cached(segment, args) : c;
+        return cached(segment, args, segment.cacheKey(args));
+    }
+
+    @Override
+    public Object cached(Segment segment, ISeq args, CacheKey key) {
+        Object c = cache.ifCached(segment, args, key);
+        if (c != absent) {
+            return c;
+        }
+        return upstreamOrCalc(segment, args, s -> upstream.cached(s, args, key), v -> v);
     }
 }
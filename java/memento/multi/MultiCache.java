@@ -1,21 +1,40 @@
 package memento.multi;
 
+import clojure.lang.AFn;
 import clojure.lang.IPersistentMap;
 import clojure.lang.ISeq;
+import memento.base.CacheKey;
+import memento.base.EntryMeta;
 import memento.base.ICache;
 import memento.base.Segment;
 
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
 public abstract class MultiCache implements ICache {
     protected final ICache cache;
     protected final ICache upstream;
     private final IPersistentMap conf;
     protected final Object absent;
+    protected final UpstreamGuard guard;
+    protected final PromotionPolicy promotion;
 
     public MultiCache(ICache cache, ICache upstream, IPersistentMap conf, Object absent) {
+        this(cache, upstream, conf, absent, null);
+    }
+
+    public MultiCache(ICache cache, ICache upstream, IPersistentMap conf, Object absent, UpstreamGuard guard) {
+        this(cache, upstream, conf, absent, guard, null);
+    }
+
+    public MultiCache(ICache cache, ICache upstream, IPersistentMap conf, Object absent, UpstreamGuard guard,
+                      PromotionPolicy promotion) {
         this.cache = cache;
         this.upstream = upstream;
         this.conf = conf;
         this.absent = absent;
+        this.guard = guard;
+        this.promotion = promotion;
     }
 
     @Override
@@ -25,8 +44,53 @@ public abstract class MultiCache implements ICache {
 
     @Override
     public Object ifCached(Segment segment, ISeq args) {
-        Object v = cache.ifCached(segment, args);
-        return v == absent ? upstream.ifCached(segment, args) : v;
+        return ifCached(segment, args, segment.cacheKey(args));
+    }
+
+    @Override
+    public Object ifCached(Segment segment, ISeq args, CacheKey key) {
+        Object v = cache.ifCached(segment, args, key);
+        return v == absent ? upstreamIfCached(segment, args, key) : v;
+    }
+
+    /**
+     * Asks upstream for the entry if present, via guard if there is one.
+     * <p>
+     * Returns absent if upstream doesn't have the entry, or if guard gave up on the upstream.
+     */
+    protected Object upstreamIfCached(Segment segment, ISeq args, CacheKey key) {
+        if (!upstream.mightContain(segment, args, key)) {
+            return absent;
+        }
+        return guard == null ? upstream.ifCached(segment, args, key) : guard.call(() -> upstream.ifCached(segment, args, key), absent);
+    }
+
+    /**
+     * Returns the entry from upstream with found applied, or calculates the value if upstream returns absent.
+     * With guard, slow upstream calls are hedged with a local calculation, and bypassed or failed
+     * upstream calls fall back to it.
+     *
+     * @param op upstream call, given the segment to use
+     */
+    protected Object upstreamOrCalc(Segment segment, ISeq args, Function<Segment, Object> op, UnaryOperator<Object> found) {
+        if (guard != null) {
+            return guard.load(segment, args, op, found, absent);
+        }
+        Object v = op.apply(segment);
+        return v == absent ? AFn.applyToHelper(segment.getF(), args) : found.apply(v);
+    }
+
+    /**
+     * Returns value found upstream as it should be returned to the local cache, which is marked
+     * as not to be cached if promotion policy rejects it.
+     */
+    protected Object promoted(Segment segment, CacheKey key, Object v) {
+        return promotion == null || promotion.promote(segment, key, v) ? v : new EntryMeta(v, true, null);
+    }
+
+    @Override
+    public boolean mightContain(Segment segment, ISeq args, CacheKey key) {
+        return cache.mightContain(segment, args, key) || upstream.mightContain(segment, args, key);
     }
 
     @Override
@@ -80,4 +144,12 @@ public abstract class MultiCache implements ICache {
     public ICache getUpstream() {
         return upstream;
     }
+
+    public UpstreamGuard getGuard() {
+        return guard;
+    }
+
+    public PromotionPolicy getPromotion() {
+        return promotion;
+    }
 }
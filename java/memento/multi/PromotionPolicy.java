@@ -0,0 +1,72 @@
+package memento.multi;
+
+import clojure.lang.IFn;
+import memento.base.CacheKey;
+import memento.base.CountMinSketch;
+import memento.base.Segment;
+import memento.base.SizeEstimator;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides if a value read from upstream is copied into the local cache.
+ * <p>
+ * Values heavier than max weight are never promoted. Otherwise the value is promoted once its key was
+ * read from upstream n times recently, counted in a count-min sketch. Values that a tiered cache's upstream
+ * loaded on a miss count too, so keys that are read once, as in a scan, never enter the local cache.
+ * Values not promoted are still returned, so one-off reads of a large upstream don't evict hot entries
+ * of a small local cache.
+ */
+public class PromotionPolicy {
+
+    private final int n;
+    private final CountMinSketch hits;
+    private final long maxWeight;
+    private final IFn weigher;
+    private final LongAdder promoted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param n         number of upstream reads needed to promote, 1 or less promotes on the first read
+     * @param window    approximate number of upstream reads over which reads are counted
+     * @param maxWeight maximum weight of a promoted entry, 0 if not limited
+     * @param weigher   (fn [f key value] weight), null to use estimated size in bytes
+     */
+    public PromotionPolicy(int n, int window, long maxWeight, IFn weigher) {
+        this.n = n;
+        this.hits = n > 1 ? new CountMinSketch(Math.max(16, window / 10)) : null;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    private long weigh(Segment segment, CacheKey key, Object v) {
+        return weigher == null ? SizeEstimator.entryWeight(key.getArgs(), v)
+                : ((Number) weigher.invoke(segment.getF(), key.getArgs(), v)).longValue();
+    }
+
+    /**
+     * Records a value read from upstream, returns true if the value should be added to the local cache.
+     */
+    public boolean promote(Segment segment, CacheKey key, Object v) {
+        if ((maxWeight <= 0 || weigh(segment, key, v) <= maxWeight) && (hits == null || hits.increment(key.hashCode()) >= n)) {
+            promoted.increment();
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Number of upstream hits added to the local cache.
+     */
+    public long getPromoted() {
+        return promoted.sum();
+    }
+
+    /**
+     * Number of upstream hits not added to the local cache.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
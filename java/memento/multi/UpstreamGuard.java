@@ -0,0 +1,372 @@
+package memento.multi;
+
+import clojure.lang.AFn;
+import clojure.lang.ISeq;
+import clojure.lang.Util;
+import clojure.lang.Var;
+import memento.base.Segment;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Latency aware guard for calls to an upstream cache.
+ * <p>
+ * Upstream calls run on a background thread (with caller's thread bindings). If the upstream doesn't
+ * answer within the hedge delay, which is a percentile of recent upstream latencies, the value is also computed
+ * locally in parallel and whichever finishes first is returned. The other one is left to finish in background.
+ * If the upstream load has already started computing the value with the segment's function, the local computation
+ * isn't started, and if the local computation has started, an upstream load that needs the value is given its result,
+ * so the function runs once per call.
+ * <p>
+ * Lookups that don't compute missing values (see {@link #call(Supplier, Object)}) just stop waiting for the upstream.
+ * <p>
+ * Hedged calls and upstream errors count as failures. Exceptions thrown by the function are rethrown and don't.
+ * After a number of consecutive failures the breaker opens and upstream is bypassed for the cool-down period.
+ * After that a single trial call is let through, success closes the breaker, failure opens it again.
+ */
+public class UpstreamGuard {
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Memento Upstream");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final int SAMPLES = 512;
+    private static final int RECALC_EVERY = 128;
+
+    private final double percentile;
+    private final long minDelay;
+    private final long maxDelay;
+    private final int failureThreshold;
+    private final long coolDown;
+
+    private final long[] samples = new long[SAMPLES];
+    private final AtomicInteger sampleIdx = new AtomicInteger();
+    private volatile boolean samplesFull;
+    private volatile long hedgeDelay;
+
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicBoolean trial = new AtomicBoolean(false);
+    private volatile long openUntil = 0;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder trips = new LongAdder();
+
+    /**
+     * @param percentile       percentile of upstream latency to use as hedge delay, e.g. 0.95
+     * @param minDelay         min hedge delay in nanos
+     * @param maxDelay         max hedge delay in nanos, also used until enough latencies are observed
+     * @param failureThreshold number of consecutive failures that opens the breaker
+     * @param coolDown         nanos that the breaker stays open
+     */
+    public UpstreamGuard(double percentile, long minDelay, long maxDelay, int failureThreshold, long coolDown) {
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.failureThreshold = failureThreshold;
+        this.coolDown = coolDown;
+        this.hedgeDelay = maxDelay;
+    }
+
+    /**
+     * Runs the upstream lookup, returns absent if upstream is bypassed, too slow or it failed. Used where
+     * the caller doesn't compute missing values. The lookup must not compute the value.
+     *
+     * @param op     upstream lookup
+     * @param absent value to return when upstream result is not available
+     */
+    public Object call(Supplier<Object> op, Object absent) {
+        if (!allow()) {
+            skipped.increment();
+            return absent;
+        }
+        calls.increment();
+        long start = System.nanoTime();
+        CompletableFuture<Object> f = async(op);
+        try {
+            Object ret = f.get(hedgeDelay, TimeUnit.NANOSECONDS);
+            recordLatency(System.nanoTime() - start);
+            success();
+            if (ret != absent) {
+                hits.increment();
+            }
+            return ret;
+        } catch (TimeoutException e) {
+            hedged.increment();
+            failure();
+            // keep latency statistics honest with late answers
+            f.whenComplete((v, t) -> recordLatency(System.nanoTime() - start));
+            return absent;
+        } catch (ExecutionException e) {
+            recordLatency(System.nanoTime() - start);
+            errors.increment();
+            failure();
+            return absent;
+        } catch (InterruptedException e) {
+            f.cancel(true);
+            throw Util.sneakyThrow(e);
+        }
+    }
+
+    /**
+     * Returns the value from upstream, or computed with segment's function if upstream doesn't have it, is bypassed
+     * or failed. If the upstream doesn't answer within the hedge delay, the value is computed locally in parallel
+     * and whichever finishes first is returned.
+     *
+     * @param segment segment of the load
+     * @param args    args of the load
+     * @param op      upstream call, given the segment to use, which may load the value with segment's function
+     * @param found   applied to values returned by upstream
+     * @param absent  value that upstream returns when it doesn't have the value
+     */
+    public Object load(Segment segment, ISeq args, Function<Segment, Object> op, UnaryOperator<Object> found,
+                       Object absent) {
+        if (!allow()) {
+            skipped.increment();
+            return AFn.applyToHelper(segment.getF(), args);
+        }
+        calls.increment();
+        long start = System.nanoTime();
+        Race race = new Race(segment);
+        Segment guarded = segment.withFn(race);
+        CompletableFuture<Object> f = async(() -> op.apply(guarded));
+        try {
+            try {
+                return upstreamDone(race, args, f.get(hedgeDelay, TimeUnit.NANOSECONDS), start, found, absent);
+            } catch (TimeoutException e) {
+                if (!race.claim()) {
+                    // upstream is already computing the value, computing it here too wouldn't be faster
+                    return upstreamDone(race, args, f.get(), start, found, absent);
+                }
+            }
+        } catch (ExecutionException e) {
+            return upstreamFailed(race, args, e.getCause(), start);
+        } catch (InterruptedException e) {
+            f.cancel(true);
+            throw Util.sneakyThrow(e);
+        }
+        hedged.increment();
+        failure();
+        f.whenComplete((v, t) -> recordLatency(System.nanoTime() - start));
+        race.computeAsync(args);
+        try {
+            CompletableFuture.anyOf(f, race.local).get();
+        } catch (ExecutionException | InterruptedException e) {
+            // examined below
+        }
+        if (!race.local.isDone()) {
+            if (!f.isCompletedExceptionally()) {
+                Object ret = f.getNow(absent);
+                if (ret != absent) {
+                    hits.increment();
+                    return found.apply(ret);
+                }
+            } else {
+                errors.increment();
+            }
+        }
+        try {
+            return race.local.get();
+        } catch (ExecutionException e) {
+            throw Util.sneakyThrow(e.getCause());
+        } catch (InterruptedException e) {
+            throw Util.sneakyThrow(e);
+        }
+    }
+
+    private Object upstreamDone(Race race, ISeq args, Object ret, long start, UnaryOperator<Object> found, Object absent) {
+        recordLatency(System.nanoTime() - start);
+        success();
+        if (ret == absent) {
+            return AFn.applyToHelper(race.segment.getF(), args);
+        }
+        if (!race.called) {
+            hits.increment();
+        }
+        return found.apply(ret);
+    }
+
+    private Object upstreamFailed(Race race, ISeq args, Throwable t, long start) {
+        recordLatency(System.nanoTime() - start);
+        if (race.failed) {
+            // the function threw during the upstream load, the upstream is fine
+            success();
+            throw Util.sneakyThrow(t);
+        }
+        if (race.called) {
+            errors.increment();
+            failure();
+            return race.result;
+        }
+        // the exception may also be the function's, from another load of the same key, so it only counts
+        // as upstream failure if computing the value locally succeeds
+        Object ret = AFn.applyToHelper(race.segment.getF(), args);
+        errors.increment();
+        failure();
+        return ret;
+    }
+
+    private static CompletableFuture<Object> async(Supplier<Object> op) {
+        Object frame = Var.cloneThreadBindingFrame();
+        return CompletableFuture.supplyAsync(() -> {
+            Object prev = Var.getThreadBindingFrame();
+            Var.resetThreadBindingFrame(frame);
+            try {
+                return op.get();
+            } finally {
+                Var.resetThreadBindingFrame(prev);
+            }
+        }, executor);
+    }
+
+    private boolean allow() {
+        long until = openUntil;
+        if (until == 0) {
+            return true;
+        }
+        return System.nanoTime() - until >= 0 && trial.compareAndSet(false, true);
+    }
+
+    private void success() {
+        failures.set(0);
+        if (openUntil != 0) {
+            openUntil = 0;
+            trial.set(false);
+        }
+    }
+
+    private void failure() {
+        if (openUntil != 0) {
+            // failed trial
+            open();
+        } else if (failures.incrementAndGet() >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        failures.set(0);
+        openUntil = System.nanoTime() + coolDown;
+        trial.set(false);
+        trips.increment();
+    }
+
+    private void recordLatency(long nanos) {
+        // stays non-negative when the counter overflows
+        int i = sampleIdx.getAndIncrement() & Integer.MAX_VALUE;
+        samples[i & (SAMPLES - 1)] = nanos;
+        if (i + 1 >= SAMPLES) {
+            samplesFull = true;
+        }
+        if ((i + 1) % RECALC_EVERY == 0) {
+            long[] copy = Arrays.copyOf(samples, samplesFull ? SAMPLES : i + 1);
+            Arrays.sort(copy);
+            long p = copy[(int) Math.min(copy.length - 1, Math.floor(percentile * copy.length))];
+            hedgeDelay = Math.max(minDelay, Math.min(maxDelay, p));
+        }
+    }
+
+    public long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    public boolean isOpen() {
+        return openUntil != 0;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getHedged() {
+        return hedged.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public long getTrips() {
+        return trips.sum();
+    }
+
+    /**
+     * Segment's function as given to the upstream during a load. Whichever of the upstream and the local computation
+     * claims the call first runs the function, the other one uses its result.
+     */
+    private static class Race extends ArgsFn {
+
+        private final Segment segment;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CompletableFuture<Object> local = new CompletableFuture<>();
+        private volatile boolean called;
+        private volatile boolean failed;
+        private volatile Object result;
+
+        Race(Segment segment) {
+            this.segment = segment;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        void computeAsync(ISeq args) {
+            async(() -> {
+                try {
+                    local.complete(AFn.applyToHelper(segment.getF(), args));
+                } catch (Throwable t) {
+                    local.completeExceptionally(t);
+                }
+                return null;
+            });
+        }
+
+        @Override
+        public Object applyTo(ISeq arglist) {
+            if (!claim()) {
+                // computed locally already
+                try {
+                    return local.get();
+                } catch (ExecutionException e) {
+                    throw Util.sneakyThrow(e.getCause());
+                } catch (InterruptedException e) {
+                    throw Util.sneakyThrow(e);
+                }
+            }
+            try {
+                result = AFn.applyToHelper(segment.getF(), arglist);
+                called = true;
+                return result;
+            } catch (Throwable t) {
+                failed = true;
+                throw Util.sneakyThrow(t);
+            }
+        }
+    }
+}
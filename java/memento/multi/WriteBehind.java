@@ -0,0 +1,259 @@
+package memento.multi;
+
+import clojure.lang.ISeq;
+import clojure.lang.ITransientMap;
+import clojure.lang.PersistentHashMap;
+import clojure.lang.Util;
+import memento.base.ICache;
+import memento.base.Segment;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of writes to slower cache tiers. The queue is drained by a background
+ * thread in batches, writes to the same tier and segment are combined into a single addEntries call.
+ * <p>
+ * When the queue is full the write is performed on the caller's thread, which slows down the producers
+ * to the rate the tiers can accept.
+ * <p>
+ * Invalidations must be performed via exclusive, which drops pending writes of invalidated entries,
+ * so they don't resurrect them. Pending writes of other entries stay queued. Each invalidation starts a new
+ * generation, writes of values loaded in an earlier generation that weren't queued during the invalidation
+ * are dropped, as the value may have been loaded before the invalidation and written after it.
+ */
+public class WriteBehind {
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Memento Write Behind");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ArrayBlockingQueue<Write> queue;
+    private final int batchSize;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder callerRuns = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    // only changed while holding the lock
+    private volatile long generation;
+
+    public WriteBehind(int queueSize, int batchSize) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns current generation, to be taken before the value is loaded and given to submit.
+     */
+    public long generation() {
+        return generation;
+    }
+
+    /**
+     * Queues the write, unless there was an invalidation since the value's load started in the given generation.
+     */
+    public void submit(ICache tier, Segment segment, ISeq args, Object v, long loadGeneration) {
+        if (loadGeneration != generation) {
+            stale.increment();
+            return;
+        }
+        Write w = new Write(tier, segment, args, v, loadGeneration);
+        if (queue.offer(w)) {
+            schedule();
+        } else {
+            callerRuns.increment();
+            ArrayList<Write> single = new ArrayList<>(1);
+            single.add(w);
+            lock.lock();
+            try {
+                apply(single);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Drops all pending writes and runs the operation, while preventing any writes to happen in the meantime.
+     */
+    public void exclusive(Runnable r) {
+        lock.lock();
+        try {
+            generation++;
+            queue.clear();
+            r.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops pending writes of the segment, or only of its args if not null, and runs the operation,
+     * while preventing any writes to happen in the meantime.
+     */
+    public void exclusive(Segment segment, ISeq args, Runnable r) {
+        lock.lock();
+        try {
+            long gen = ++generation;
+            queue.removeIf(w -> {
+                if (Util.equiv(w.segment.getId(), segment.getId()) && (args == null || Util.equiv(w.args, args))) {
+                    return true;
+                }
+                // checked against this invalidation, so it's not stale
+                w.generation = gen;
+                return false;
+            });
+            r.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes pending writes and runs the operation, while preventing any writes to happen in the meantime.
+     * For invalidations that can't tell which pending writes they affect, such as by tag.
+     */
+    public void flushThen(Runnable r) {
+        lock.lock();
+        try {
+            flush();
+            generation++;
+            r.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until writes submitted before this call are written.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            ArrayList<Write> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                apply(batch);
+                batch.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int pending() {
+        return queue.size();
+    }
+
+    public long callerRuns() {
+        return callerRuns.sum();
+    }
+
+    public long errors() {
+        return errors.sum();
+    }
+
+    /**
+     * Number of writes dropped because an invalidation happened while their value was loading.
+     */
+    public long stale() {
+        return stale.sum();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            ArrayList<Write> batch = new ArrayList<>(batchSize);
+            while (true) {
+                lock.lock();
+                try {
+                    if (queue.drainTo(batch, batchSize) == 0) {
+                        break;
+                    }
+                    apply(batch);
+                } finally {
+                    lock.unlock();
+                }
+                batch.clear();
+            }
+        } finally {
+            scheduled.set(false);
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    private void apply(ArrayList<Write> batch) {
+        Map<Target, ITransientMap> groups = new LinkedHashMap<>();
+        for (Write w : batch) {
+            if (w.generation != generation) {
+                stale.increment();
+                continue;
+            }
+            groups.compute(new Target(w.tier, w.segment),
+                    (t, m) -> (m == null ? PersistentHashMap.EMPTY.asTransient() : m).assoc(w.args, w.v));
+        }
+        for (Map.Entry<Target, ITransientMap> e : groups.entrySet()) {
+            try {
+                e.getKey().tier.addEntries(e.getKey().segment, e.getValue().persistent());
+            } catch (Throwable t) {
+                errors.increment();
+            }
+        }
+    }
+
+    private static class Write {
+        final ICache tier;
+        final Segment segment;
+        final ISeq args;
+        final Object v;
+        volatile long generation;
+
+        Write(ICache tier, Segment segment, ISeq args, Object v, long generation) {
+            this.tier = tier;
+            this.segment = segment;
+            this.args = args;
+            this.v = v;
+            this.generation = generation;
+        }
+    }
+
+    private static class Target {
+        final ICache tier;
+        final Segment segment;
+
+        Target(ICache tier, Segment segment) {
+            this.tier = tier;
+            this.segment = segment;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Target target = (Target) o;
+            return tier == target.tier && segment.equals(target.segment);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(tier), segment);
+        }
+    }
+}
@@ -6,11 +6,17 @@
   {:author "Rok Lenarčič"}
   (:require [memento.config :as config])
   (:import (clojure.lang AFn)
-           (memento.base EntryMeta ICache LockoutMap)))
+           (memento.base EntryMeta ICache LazyCache LockoutMap)))
 
 (def absent "Value that signals absent key." EntryMeta/absent)
 
-(defn unwrap-meta [o] (if (instance? EntryMeta o) (.getV ^EntryMeta o) o))
+(def ^:dynamic *populate*
+  "Population mode of caches that support it, see memento.base.Population. Bind with
+  memento.core/with-no-populate or memento.core/with-scope-layer. Caches read it only while a scope
+  is active, see memento.base.Population/enter."
+  true)
+
+(defn unwrap-meta [o] (EntryMeta/unwrap o))
 
 (def ^LockoutMap lockout-map
   "A LockoutMap. Implementation developers use this to do caching in a fashion that is aware
@@ -31,8 +37,13 @@
     (asMap [this segment] {})))
 
 (defn conf [^ICache icache] (.conf icache))
-(defn cached [^ICache icache segment args] (.cached icache segment args))
-(defn if-cached [^ICache icache segment args] (.ifCached icache segment args))
+(defn cached
+  ([^ICache icache segment args] (.cached icache segment args))
+  ([^ICache icache segment args key] (.cached icache segment args key)))
+(defn if-cached
+  ([^ICache icache segment args] (.ifCached icache segment args))
+  ([^ICache icache segment args key] (.ifCached icache segment args key)))
+(defn might-contain? [^ICache icache segment args key] (.mightContain icache segment args key))
 (defn invalidate
   ([^ICache icache segment args] (.invalidate icache segment args))
   ([^ICache icache segment] (.invalidate icache segment)))
@@ -56,5 +67,14 @@
     conf
     (cond
       (config/cache conf) (throw (ex-info "You are passing meta key :memento.core/cache into cache constructor. Did you mean to specify :memento.core/type?" {}))
-      config/enabled? (new-cache (merge {config/type config/*default-type*} conf))
+      config/enabled? (let [conf (merge {config/type config/*default-type*} conf)]
+                        (if (and (config/lazy conf config/*lazy*)
+                                 (not= config/none (config/type conf)))
+                          (LazyCache. conf (fn [] (new-cache conf)))
+                          (new-cache conf)))
       :else no-cache)))
+
+(defn realize
+  "If cache is lazy, return the underlying cache, instantiating it if needed."
+  [cache]
+  (if (instance? LazyCache cache) (.realize ^LazyCache cache) cache))
@@ -2,69 +2,176 @@
   "Caffeine cache implementation."
   {:author "Rok Lenarčič"}
   (:require [memento.base :as b])
-  (:import (java.util.concurrent TimeUnit)
-           (memento.base Durations CacheKey EntryMeta ICache Segment)
+  (:import (java.lang.management ManagementFactory)
+           (java.util.concurrent Executor TimeUnit)
+           (javax.management ObjectName)
+           (memento.base Compressed DeflateCodec Durations CacheKey EntryMeta ICache Segment SizeEstimator)
            (com.github.benmanes.caffeine.cache Caffeine Weigher Ticker)
-           (memento.caffeine CaffeineCache_ SecondaryIndex SpecialPromise Expiry)
+           (com.github.benmanes.caffeine.cache.stats CacheStats)
+           (memento.caffeine BudgetManager CaffeineCache_ Compressor CostWeigher Doorkeeper L0Cache SegmentQuotas StripedCache VariableExpiry FootprintReporter FootprintReporter$Report FootprintReporter$Usage KeyProfiler Metrics MissRatioProfiler SecondaryIndex SegmentStats SpecialPromise Expiry)
            (memento.mount IMountPoint)))
 
 (defn create-expiry
   "Assumes variable expiry is needed. So either ttl or fade is a function."
-  [ttl fade ^Expiry cache-expiry]
-  (let [read-default (some-> fade (Durations/nanos))
-        write-default (Durations/nanos (or ttl fade [Long/MAX_VALUE :ns]))]
-    (reify com.github.benmanes.caffeine.cache.Expiry
-      (expireAfterCreate [this k v current-time]
-        (if (instance? SpecialPromise v)
-          Long/MAX_VALUE
-          (.expireAfterUpdate this k v current-time Long/MAX_VALUE)))
-      (expireAfterUpdate [this k v current-time current-duration]
-        (if-let [ret (.ttl cache-expiry {} (.getArgs ^CacheKey k) v)]
-          (Durations/nanos ret)
-          (if-let [ret (.fade cache-expiry {} (.getArgs ^CacheKey k) v)]
-            (Durations/nanos ret)
-            write-default)))
-      (expireAfterRead [this k v current-time current-duration]
-        (if (instance? SpecialPromise v)
-          current-duration
-          ;; if fade is not specified, keep current validity (probably set by ttl)
-          (if-let [ret (.fade cache-expiry {} (.getArgs ^CacheKey k) v)]
-            (Durations/nanos ret)
-            (or read-default current-duration)))))))
+  ^VariableExpiry [ttl fade ^Expiry cache-expiry]
+  (VariableExpiry. cache-expiry
+                   (if fade (Durations/nanos fade) -1)
+                   (Durations/nanos (or ttl fade [Long/MAX_VALUE :ns]))))
+
+(defn conf->expiry
+  "Creates variable expiry if expiry is set"
+  [{:memento.core/keys [ttl fade] :memento.caffeine/keys [expiry]}]
+  (when expiry
+    (create-expiry ttl fade expiry)))
 
 (defn conf->sec-index
   "Creates secondary index for evictions"
   [{:memento.core/keys [concurrency]}]
   (SecondaryIndex. (or concurrency 4)))
 
+(defn estimate-size
+  "Approximate retained heap size of the object in bytes, see memento.base.SizeEstimator."
+  ^long [o]
+  (SizeEstimator/estimate o))
+
+(defn estimated-weight
+  "A kv-weight function that approximates retained heap size of the entry in bytes, including
+  the overhead of the cache entry. This is the default kv-weight when weight< is set."
+  [_f args v]
+  (SizeEstimator/entryWeight args v))
+
+(defn conf->metrics
+  "Creates per segment metrics if enabled"
+  [{:memento.caffeine/keys [metrics metrics-sample metrics-jmx]}]
+  (when metrics
+    (Metrics. (int (or metrics-sample 1)) metrics-jmx)))
+
+(defn conf->mrc
+  "Creates miss ratio curve profiler if enabled"
+  [{:memento.core/keys [size<]
+    :memento.caffeine/keys [mrc mrc-sample weight< kv-weight] :as conf}]
+  (when mrc
+    (when-not (or size< weight<)
+      (throw (ex-info "Miss ratio curve profiling needs size< or weight< setting" {:conf conf})))
+    (MissRatioProfiler. (or size< 0)
+                        (or weight< 0)
+                        (or kv-weight estimated-weight)
+                        (double (or mrc-sample (if size< (min 1.0 (/ 4096.0 size<)) 0.01)))
+                        (double-array (if (sequential? mrc) mrc [0.5 1 2 4])))))
+
+(def ^:private key-profiler-owners
+  "Map of ObjectName to KeyProfiler registered under it."
+  (atom {}))
+
+(defn- key-profiler-name ^ObjectName [metrics-jmx]
+  (ObjectName. (str "memento:type=KeyProfiler,cache=" (ObjectName/quote metrics-jmx))))
+
+(defn conf->key-profiler
+  "Creates hot keys profiler if enabled, registering it in JMX if metrics-jmx is set."
+  [{:memento.caffeine/keys [hot-keys hot-keys-sample metrics-jmx]}]
+  (when hot-keys
+    (when (and (integer? hot-keys) (< hot-keys 1))
+      (throw (ex-info "Hot keys list size must be at least 1" {:hot-keys hot-keys})))
+    (let [p (KeyProfiler. (int (if (integer? hot-keys) hot-keys 10)) 4096 (int (or hot-keys-sample 1)))]
+      (when metrics-jmx
+        (let [server (ManagementFactory/getPlatformMBeanServer)
+              n (key-profiler-name metrics-jmx)]
+          (locking server
+            (when (.isRegistered server n) (.unregisterMBean server n))
+            (.registerMBean server p n)
+            (swap! key-profiler-owners assoc n p))))
+      p)))
+
+(defn conf->doorkeeper
+  "Creates doorkeeper admission filter if enabled"
+  [{:memento.core/keys [size<] :memento.caffeine/keys [doorkeeper doorkeeper-window]}]
+  (when doorkeeper
+    (Doorkeeper. (int (if (integer? doorkeeper) doorkeeper 2))
+                 (int (or doorkeeper-window (* 10 (max 10000 (or size< 0))))))))
+
+(defn conf->l0
+  "Creates thread local L0 cache if enabled"
+  [{:memento.core/keys [ttl fade] :memento.caffeine/keys [l0 l0-max-age expiry]}]
+  (when l0
+    (L0Cache. (int (if (integer? l0) l0 16))
+              (cond
+                l0-max-age (Durations/nanos l0-max-age)
+                (or ttl fade expiry) (Durations/nanos [100 :ms])
+                :else 0))))
+
+(defn conf->compressor
+  "Creates compressor of large values if enabled"
+  [{:memento.caffeine/keys [compress codec weak-values soft-values]}]
+  ;; the compressed holder is only referenced by the cache, so weak and soft values would be collected right away
+  (when (and compress (not (or weak-values soft-values)))
+    (Compressor. (or codec (DeflateCodec.)) (if (integer? compress) compress 4096))))
+
+(defn conf->footprint
+  "Creates footprint reporter for the cache map and starts it, if enabled"
+  [{:memento.caffeine/keys [footprint footprint-sample]} map]
+  (when footprint
+    (doto (FootprintReporter. map (double (or footprint-sample 0.1)) 100000)
+      (.start (Durations/nanos (if (true? footprint) [1 :m] footprint))))))
+
+(defn conf->weigher
+  "Creates the weigher of the cache, if it is weighted."
+  ^Weigher [{:memento.caffeine/keys [weight< kv-weight cost-aware] :as conf}]
+  (let [w (cond
+            ;; compressed values weigh their encoded size, decoding them on every write would defeat compression
+            kv-weight (reify Weigher (weigh [_this k v]
+                                       (let [v (if (instance? EntryMeta v) (.getV ^EntryMeta v) v)]
+                                         (if (instance? Compressed v)
+                                           (alength (.getBytes ^Compressed v))
+                                           (kv-weight (.getId ^CacheKey k) (.getArgs ^CacheKey k) v)))))
+            weight< (reify Weigher (weigh [_this k v]
+                                     (SizeEstimator/entryWeight (.getArgs ^CacheKey k) v))))]
+    (if cost-aware
+      (if weight<
+        (CostWeigher. w (Durations/nanos (if (true? cost-aware) [1 :ms] cost-aware)))
+        (throw (ex-info "Cost aware eviction needs weight< setting" {:conf conf})))
+      w)))
+
+(defn conf->quotas
+  "Creates segment quotas if enabled"
+  [{:memento.core/keys [size<] :memento.caffeine/keys [quotas fair-share weight<] :as conf}]
+  (when (or quotas fair-share)
+    ;; trimming looks for victims among the coldest entries, which unbounded caches don't track
+    (when-not (or size< weight<)
+      (throw (ex-info "Quotas and fair share need size< or weight< setting" {:conf conf})))
+    (SegmentQuotas. (when (map? quotas) quotas) (boolean fair-share) (conf->weigher conf))))
+
 (defn ^Caffeine conf->builder
   "Creates and configures common parameters on the builder."
-  [{:memento.core/keys [initial-capacity size< ttl fade]
-    :memento.caffeine/keys [weight< removal-listener kv-weight weak-keys weak-values
-                            soft-values refresh stats ticker expiry]}]
-  (cond-> (Caffeine/newBuilder)
-    removal-listener (.removalListener (CaffeineCache_/listener removal-listener))
-    initial-capacity (.initialCapacity initial-capacity)
-    weight< (.maximumWeight weight<)
-    size< (.maximumSize size<)
-    kv-weight (.weigher
-                (reify Weigher (weigh [_this k v]
-                                 (kv-weight (.getId ^CacheKey k)
-                                            (.getArgs ^CacheKey k)
-                                            (b/unwrap-meta v)))))
-    ;; these don't make sense as the caller cannot hold the CacheKey
-    ;;weak-keys (.weakKeys)
-    ;; careful around EntryMeta objects
-    ;; mean that cached values have another wrapper yet again
-    weak-values (.weakValues)
-    soft-values (.softValues)
-    expiry (.expireAfter (create-expiry ttl fade expiry))
-    (and (not expiry) ttl) (.expireAfterWrite (Durations/nanos ttl) TimeUnit/NANOSECONDS)
-    (and (not expiry) fade) (.expireAfterAccess (Durations/nanos fade) TimeUnit/NANOSECONDS)
-    ;; not currently used because we don't build a loading cache
-    refresh (.refreshAfterWrite (Durations/nanos refresh) TimeUnit/NANOSECONDS)
-    ticker (.ticker (proxy [Ticker] [] (read [] (ticker))))
-    stats (.recordStats)))
+  ([conf] (conf->builder conf nil))
+  ([conf metrics] (conf->builder conf metrics nil))
+  ([conf metrics quotas] (conf->builder conf metrics quotas (conf->expiry conf)))
+  ([{:memento.core/keys [initial-capacity size< ttl fade]
+     :memento.caffeine/keys [weight< removal-listener weak-keys weak-values
+                             soft-values refresh stats ticker expiry] :as conf}
+    metrics
+    quotas
+    variable-expiry]
+   (cond-> (Caffeine/newBuilder)
+     :always (as-> b (if-let [w (conf->weigher conf)] (.weigher b w) b))
+     (or removal-listener metrics quotas) (.removalListener (CaffeineCache_/listener removal-listener metrics quotas))
+     ;; quotas track removals, so the removal listener must run synchronously
+     quotas (.executor (reify Executor (execute [_ r] (.run r))))
+     initial-capacity (.initialCapacity initial-capacity)
+     weight< (.maximumWeight weight<)
+     size< (.maximumSize size<)
+     ;; these don't make sense as the caller cannot hold the CacheKey
+     ;;weak-keys (.weakKeys)
+     ;; careful around EntryMeta objects
+     ;; mean that cached values have another wrapper yet again
+     weak-values (.weakValues)
+     soft-values (.softValues)
+     variable-expiry (.expireAfter ^VariableExpiry variable-expiry)
+     (and (not expiry) ttl) (.expireAfterWrite (Durations/nanos ttl) TimeUnit/NANOSECONDS)
+     (and (not expiry) fade) (.expireAfterAccess (Durations/nanos fade) TimeUnit/NANOSECONDS)
+     ;; not currently used because we don't build a loading cache
+     refresh (.refreshAfterWrite (Durations/nanos refresh) TimeUnit/NANOSECONDS)
+     ticker (.ticker (proxy [Ticker] [] (read [] (ticker))))
+     stats (.recordStats))))
 
 (defn assoc-imm-val!
   "If cached value is a completable future with immediately available value, assoc it to transient."
@@ -83,8 +190,14 @@
   (conf [this] conf)
   (cached [this segment args]
     (.cached caffeine-cache segment args))
+  (cached [this segment args key]
+    (.cached caffeine-cache segment args key))
   (ifCached [this segment args]
     (.ifCached caffeine-cache segment args))
+  (ifCached [this segment args key]
+    (.ifCached caffeine-cache segment args key))
+  (mightContain [this segment args key]
+    (.mightContain caffeine-cache segment args key))
   (invalidate [this segment]
     (.invalidate caffeine-cache ^Segment segment)
     this)
@@ -109,13 +222,144 @@
               (transient {})
               (.asMap caffeine-cache)))))
 
+(defrecord StripedCaffeineCache [conf ^StripedCache striped-cache]
+  ICache
+  (conf [this] conf)
+  (cached [this segment args]
+    (.cached striped-cache segment args))
+  (cached [this segment args key]
+    (.cached striped-cache segment args key))
+  (ifCached [this segment args]
+    (.ifCached striped-cache segment args))
+  (ifCached [this segment args key]
+    (.ifCached striped-cache segment args key))
+  (mightContain [this segment args key]
+    (.mightContain striped-cache segment args key))
+  (invalidate [this segment]
+    (.invalidate striped-cache ^Segment segment)
+    this)
+  (invalidate [this segment args] (.invalidate striped-cache ^Segment segment args)
+    this)
+  (invalidateAll [this] (.invalidateAll striped-cache) this)
+  (invalidateIds [this ids]
+    (.invalidateIds striped-cache ids)
+    this)
+  (addEntries [this segment args-to-vals]
+    (.addEntries striped-cache segment args-to-vals)
+    this)
+  (asMap [this] (persistent!
+                  (reduce (fn [m ^CaffeineCache_ c]
+                            (reduce (fn [m [k v]] (assoc-imm-val! m k v b/unwrap-meta)) m (.asMap c)))
+                          (transient {})
+                          (.getStripes striped-cache))))
+  (asMap [this segment]
+    (persistent!
+      (reduce (fn [m ^CaffeineCache_ c]
+                (reduce (fn [m [^CacheKey k v]]
+                          (if (= (.getId segment) (.getId k)) (assoc-imm-val! m (.getArgs k) v b/unwrap-meta)
+                            m))
+                        m
+                        (.asMap c)))
+              (transient {})
+              (.getStripes striped-cache)))))
+
+(defn caffeine-caches
+  "Returns CaffeineCache_ instances of a caffeine Cache, one per stripe, or nil if it isn't a caffeine Cache."
+  [cache]
+  (condp instance? cache
+    CaffeineCache [(:caffeine-cache cache)]
+    StripedCaffeineCache (vec (.getStripes ^StripedCache (:striped-cache cache)))
+    nil))
+
+(defn- new-caffeine-cache_
+  "Creates CaffeineCache_ with the conf, sharing metrics and profilers given in opts."
+  ^CaffeineCache_ [conf metrics quotas {:keys [mrc key-profiler doorkeeper l0 compressor]}]
+  (let [expiry (conf->expiry conf)]
+    (doto (CaffeineCache_.
+            (conf->builder conf metrics quotas expiry)
+            (:memento.core/key-fn conf)
+            (:memento.core/ret-fn conf)
+            (:memento.core/ret-ex-fn conf)
+            (conf->sec-index conf)
+            (:memento.caffeine/key-filter conf 0)
+            metrics)
+      ;; wrapping values to store evaluated expiry would make weak and soft values collectable right away
+      (.setExpiry (when-not (some conf [:memento.caffeine/weak-values :memento.caffeine/soft-values]) expiry))
+      (.setMissRatioProfiler mrc)
+      (.setKeyProfiler key-profiler)
+      (.setRecordLoadCost (boolean (:memento.caffeine/cost-aware conf)))
+      (.setDoorkeeper doorkeeper)
+      (.setL0 l0)
+      (.setCompressor compressor))))
+
+(defn- shared-opts [conf]
+  {:mrc (conf->mrc conf)
+   :key-profiler (conf->key-profiler conf)
+   :doorkeeper (conf->doorkeeper conf)
+   :l0 (conf->l0 conf)
+   :compressor (conf->compressor conf)})
+
+(defn stripe-conf
+  "Conf of one of n stripes, with limits divided between stripes."
+  [conf n]
+  (let [divide #(max 1 (quot % n))]
+    (cond-> conf
+      (:memento.core/size< conf) (update :memento.core/size< divide)
+      (:memento.caffeine/weight< conf) (update :memento.caffeine/weight< divide)
+      (:memento.core/initial-capacity conf) (update :memento.core/initial-capacity divide)
+      (:memento.caffeine/key-filter conf) (update :memento.caffeine/key-filter divide))))
+
+(defn- new-striped-cache [conf stripes]
+  (let [n (if (integer? stripes)
+            stripes
+            (Integer/highestOneBit (* 2 (dec (max 2 (.availableProcessors (Runtime/getRuntime)))))))]
+    (when (some conf [:memento.caffeine/quotas :memento.caffeine/fair-share
+                      :memento.caffeine/footprint :memento.caffeine/budget])
+      (throw (ex-info "Striped cache doesn't support quotas, fair-share, footprint or budget settings" {:conf conf})))
+    (when-not (= 1 (Integer/bitCount (int n)))
+      (throw (ex-info "Number of stripes must be a power of 2" {:conf conf})))
+    (let [metrics (conf->metrics conf)
+          opts (shared-opts conf)
+          sconf (stripe-conf conf n)]
+      (->StripedCaffeineCache
+        conf
+        (StripedCache. (into-array CaffeineCache_ (repeatedly n #(new-caffeine-cache_ sconf metrics nil opts))))))))
+
 (defmethod b/new-cache :memento.core/caffeine [conf]
-  (->CaffeineCache conf (CaffeineCache_.
-                          (conf->builder conf)
-                          (:memento.core/key-fn conf)
-                          (:memento.core/ret-fn conf)
-                          (:memento.core/ret-ex-fn conf)
-                          (conf->sec-index conf))))
+  (if-let [stripes (:memento.caffeine/stripes conf)]
+    (new-striped-cache conf stripes)
+    (let [metrics (conf->metrics conf)
+          quotas (conf->quotas conf)
+          c (new-caffeine-cache_ conf metrics quotas (shared-opts conf))]
+      (.setFootprintReporter c (conf->footprint conf (.asMap c)))
+      (.setQuotas c quotas)
+      (when-let [^BudgetManager budget (:memento.caffeine/budget conf)]
+        (.register budget (or (:memento.caffeine/metrics-jmx conf) (str "cache-" (System/identityHashCode c))) c))
+      (->CaffeineCache conf c))))
+
+(defn budget-manager
+  "Create a budget manager that shares a total budget between Caffeine caches, by periodically
+  setting their size< or weight< limit. Caches join with memento.caffeine.config/budget setting.
+
+  Options:
+  - :budget, total of cache limits, in entries or weight (e.g. estimated bytes), required
+  - :min-share, share of budget guaranteed to each cache, defaults to 0.05
+  - :interval, duration between rebalancing, defaults to 1 minute, nil doesn't rebalance automatically"
+  ^BudgetManager [{:keys [budget min-share interval] :or {min-share 0.05 interval [1 :m]}}]
+  (when-not budget
+    (throw (ex-info "Budget manager needs a :budget" {})))
+  (doto (BudgetManager. budget (double min-share))
+    (cond-> interval (.start (Durations/nanos interval)))))
+
+(defn rebalance!
+  "Redistribute the budget of the budget manager now, returns a map of cache name to new limit."
+  [^BudgetManager manager]
+  (into {} (.rebalance manager)))
+
+(defn budget-limits
+  "Returns a map of cache name to current limit of caches in the budget manager."
+  [^BudgetManager manager]
+  (into {} (.getLimits manager)))
 
 (defn stats
   "Return caffeine stats for the cache if it is a caffeine Cache.
@@ -125,21 +369,192 @@
    Returns com.github.benmanes.caffeine.cache.stats.CacheStats"
   [fn-or-cache]
   (if (instance? ICache fn-or-cache)
-    (when (instance? CaffeineCache fn-or-cache)
-      (.stats ^CaffeineCache_ (:caffeine-cache fn-or-cache)))
+    (let [cache (b/realize fn-or-cache)]
+      (some->> (caffeine-caches cache)
+               (map #(.stats ^CaffeineCache_ %))
+               (reduce #(.plus ^CacheStats %1 %2))))
     (stats (.mountedCache ^IMountPoint fn-or-cache))))
 
+(defn- segment-stats->map [^SegmentStats s]
+  {:hits (.getHits s)
+   :misses (.getMisses s)
+   :loads (.getLoads s)
+   :load-failures (.getLoadFailures s)
+   :load-time-ns (.getTotalLoadTime s)
+   :waits (.getWaits s)
+   :evictions (.getEvictions s)
+   :invalidations (.getInvalidations s)
+   ;; upper bound of bucket in nanoseconds -> count, only non-empty buckets
+   :load-time-histogram (into (sorted-map)
+                              (keep-indexed (fn [i cnt] (when (pos? cnt) [(bit-shift-left 1 i) cnt])))
+                              (.getLoadTimeHistogram s))})
+
+(defn segment-stats
+  "Return per function metrics for the cache if it is a caffeine Cache with metrics enabled, see
+  memento.caffeine.config/metrics.
+
+  Takes a memoized fn or a Cache instance as a parameter. For a Cache it returns a map of
+  segment id to metrics map, for a memoized fn it returns the metrics map of that function.
+
+  Metrics map has keys :hits, :misses, :loads, :load-failures, :load-time-ns, :waits, :evictions,
+  :invalidations and :load-time-histogram, which is a sorted map of bucket upper bound in nanoseconds to count."
+  [fn-or-cache]
+  (if (instance? ICache fn-or-cache)
+    (let [cache (b/realize fn-or-cache)]
+      (when-let [^Metrics metrics (some-> ^CaffeineCache_ (first (caffeine-caches cache)) .getMetrics)]
+        (persistent!
+          (reduce-kv (fn [m id s] (assoc! m id (segment-stats->map s)))
+                     (transient {})
+                     (into {} (.getStats metrics))))))
+    (let [^IMountPoint mp fn-or-cache]
+      (some-> (segment-stats (.mountedCache mp))
+              (get (.getId (.segment mp)))))))
+
+(defn unregister-metrics
+  "Unregisters MXBeans that the cache registered because of memento.caffeine.config/metrics-jmx, so a cache
+  that is no longer used, e.g. after a namespace reload, isn't kept by the MBean server. MXBeans already replaced
+  by a newer cache with the same name are left alone.
+
+  Takes a memoized fn or a Cache instance as a parameter. Returns nil."
+  [fn-or-cache]
+  (if (instance? ICache fn-or-cache)
+    (let [cache (b/realize fn-or-cache)
+          caches (caffeine-caches cache)]
+      (when-let [^Metrics metrics (some-> ^CaffeineCache_ (first caches) .getMetrics)]
+        (.unregister metrics))
+      (when-let [p (some-> ^CaffeineCache_ (first caches) .getKeyProfiler)]
+        (when-let [jmx (:memento.caffeine/metrics-jmx (:conf cache))]
+          (let [server (ManagementFactory/getPlatformMBeanServer)
+                n (key-profiler-name jmx)]
+            (locking server
+              (when (identical? p (get @key-profiler-owners n))
+                (swap! key-profiler-owners dissoc n)
+                (when (.isRegistered server n) (.unregisterMBean server n))))))))
+    (unregister-metrics (.mountedCache ^IMountPoint fn-or-cache))))
+
+(defn miss-ratio-curve
+  "Return estimated hit ratios of the cache at different sizes if it is a caffeine Cache with
+  mrc profiling enabled, see memento.caffeine.config/mrc.
+
+  Takes a memoized fn or a Cache instance as a parameter.
+
+  Returns a map with :accesses (number of sampled accesses), :sample-rate and :curve, a sorted map of
+  size ratio to map with :limit (size or weight limit at that ratio) and :hit-ratio."
+  [fn-or-cache]
+  (if (instance? ICache fn-or-cache)
+    (let [cache (b/realize fn-or-cache)]
+      (when-let [^MissRatioProfiler p (some-> ^CaffeineCache_ (first (caffeine-caches cache)) .getMissRatioProfiler)]
+        (let [{:memento.core/keys [size<] :memento.caffeine/keys [weight<]} (:conf cache)
+              limit (or size< weight<)]
+          {:accesses (.getAccesses p)
+           :sample-rate (.getSampleRate p)
+           :curve (into (sorted-map)
+                        (map (fn [ratio hit-ratio]
+                               [ratio {:limit (long (* ratio limit)) :hit-ratio hit-ratio}])
+                             (.getRatios p)
+                             (.getHitRatios p)))})))
+    (miss-ratio-curve (.mountedCache ^IMountPoint fn-or-cache))))
+
+(defn hot-keys
+  "Return top lists of keys of the cache if it is a caffeine Cache with hot-keys enabled, see
+  memento.caffeine.config/hot-keys.
+
+  Takes a memoized fn or a Cache instance as a parameter.
+
+  Returns a map with:
+  - :frequent, most frequently accessed keys with estimated :count
+  - :slow, keys with slowest loads with :load-ns
+  - :contended, keys with most waits on another thread's load with estimated :waits
+
+  Each key is a map of :id (segment id) and :args."
+  [fn-or-cache]
+  (if (instance? ICache fn-or-cache)
+    (let [cache (b/realize fn-or-cache)]
+      (when-let [^KeyProfiler p (some-> ^CaffeineCache_ (first (caffeine-caches cache)) .getKeyProfiler)]
+        (letfn [(entries [l score-k]
+                  (mapv (fn [[^CacheKey k score]] {:id (.getId k) :args (.getArgs k) score-k score}) l))]
+          {:frequent (entries (.frequent p) :count)
+           :slow (entries (.slow p) :load-ns)
+           :contended (entries (.contended p) :waits)})))
+    (hot-keys (.mountedCache ^IMountPoint fn-or-cache))))
+
+(defn quotas
+  "Return segment quota usage of the cache if it is a caffeine Cache with quotas or fair share enabled, see
+  memento.caffeine.config/quotas.
+
+  Takes a memoized fn or a Cache instance as a parameter.
+
+  Returns a map of segment id to map of :usage (entries or weight), :limit (0 if not limited) and :trimmed (number of
+  entries removed to enforce the quota or fair share)."
+  [fn-or-cache]
+  (if (instance? ICache fn-or-cache)
+    (let [cache (b/realize fn-or-cache)]
+      (when-let [^SegmentQuotas q (and (instance? CaffeineCache cache)
+                                       (.getQuotas ^CaffeineCache_ (:caffeine-cache cache)))]
+        (into {}
+              (map (fn [id] [id {:usage (.getUsage q id) :limit (.getLimit q id) :trimmed (.getTrimmed q id)}]))
+              (.getIds q))))
+    (quotas (.mountedCache ^IMountPoint fn-or-cache))))
+
+(defn- footprint-report [^FootprintReporter$Report r]
+  (letfn [(usage [^FootprintReporter$Usage u] {:entries (.getEntries u) :bytes (.getBytes u)})
+          (usages [m] (into {} (map (fn [[k u]] [k (usage u)])) m))]
+    (assoc (usage (.getTotal r))
+      :sample-rate (.getSampleRate r)
+      :created-at (.getCreatedAt r)
+      :time-ns (.getTimeNanos r)
+      :segments (usages (.getSegments r))
+      :tags (usages (.getTags r)))))
+
+(defn footprint
+  "Return estimated heap used by entries of the cache if it is a caffeine Cache.
+
+  Takes a memoized fn or a Cache instance as a parameter.
+
+  With one argument it returns the latest background scan, if footprint is enabled (see memento.caffeine.config/footprint),
+  otherwise it scans the cache in the calling thread. With opts it always scans in the calling thread, options:
+  - :sample, ratio of entries to estimate, defaults to footprint-sample setting or 0.1
+
+  Returns a map with:
+  - :entries and :bytes, total entry count and estimated bytes, including keys, EntryMeta and tag index overhead
+  - :segments, a map of segment id to {:entries :bytes}
+  - :tags, a map of tag to {:entries :bytes}, an entry counts towards each of its tags
+  - :sample-rate, :created-at (epoch ms) and :time-ns (duration of the scan)
+
+  Returns nil before the first background scan has completed."
+  ([fn-or-cache] (footprint fn-or-cache nil))
+  ([fn-or-cache opts]
+   (if (instance? ICache fn-or-cache)
+     (let [cache (b/realize fn-or-cache)]
+       (when (instance? CaffeineCache cache)
+         (let [^CaffeineCache_ c (:caffeine-cache cache)
+               ^FootprintReporter reporter (.getFootprintReporter c)]
+           (some-> (if (and reporter (nil? opts))
+                     (.getLast reporter)
+                     (.scan (FootprintReporter. (.asMap c)
+                                                (double (or (:sample opts)
+                                                            (:memento.caffeine/footprint-sample (:conf cache))
+                                                            0.1))
+                                                0)))
+                   footprint-report))))
+     (footprint (.mountedCache ^IMountPoint fn-or-cache) opts))))
+
 (defn to-data [cache]
-  (when-let [caffeine (:caffeine-cache cache)]
+  (when-let [caches (caffeine-caches (b/realize cache))]
     (persistent!
       (reduce (fn [m [^CacheKey k v]] (assoc-imm-val! m
                                                       [(.getId k) (.getArgs k)]
                                                       v
-                                                      #(if (and (instance? EntryMeta %) (nil? (.getV ^EntryMeta %)))
-                                                         nil %)))
+                                                      ;; EntryMeta without tags only carries nil or cache's own data
+                                                      #(let [v (Compressed/expand %)]
+                                                         (if (and (instance? EntryMeta v) (zero? (.identCount ^EntryMeta v)))
+                                                           (.getV ^EntryMeta v) v))))
               (transient {})
-              (.asMap ^CaffeineCache_ caffeine)))))
+              (mapcat #(.asMap ^CaffeineCache_ %) caches)))))
 
 (defn load-data [cache data-map]
-  (.loadData ^CaffeineCache_ (:caffeine-cache cache) data-map)
+  (let [cache (b/realize cache)]
+    (if-let [striped (:striped-cache cache)]
+      (.loadData ^StripedCache striped data-map)
+      (.loadData ^CaffeineCache_ (:caffeine-cache cache) data-map)))
   cache)
@@ -24,8 +24,9 @@
 (def weight<
   "Cache setting, a long.
 
-  Specifies the maximum weight of entries the cache may contain. If using this option,
-  you must provide `kw-weight` option for cache to calculate the weight of entries.
+  Specifies the maximum weight of entries the cache may contain. Weight of entries is calculated
+  by `kv-weight` option, if it is not provided, the weight is the approximate retained heap size
+  of the entry in bytes (see memento.caffeine/estimated-weight), so the cache is bounded by memory.
 
   A cache may evict entries before the specified limit is reached."
   :memento.caffeine/weight<)
@@ -39,7 +40,9 @@
   The 3 arguments are:
   - the first argument is the function being cached
   - the second argument is the key (arg-list transformed by key-fn if any)
-  - the third argument is the value (after ret-fn being applied)"
+  - the third argument is the value (after ret-fn being applied)
+
+  Values stored compressed (see compress) are not given to this function, they weigh their compressed size in bytes."
   :memento.caffeine/kv-weight)
 
 ;; makes no sense, since user cannot hold on to our CacheKey instances
@@ -105,6 +108,191 @@
    functions return nil, then ttl and fade settings apply."
   :memento.caffeine/expiry)
 
+(def key-filter
+  "Cache setting, a long, the expected number of entries in the cache.
+
+  If specified, the cache maintains a Bloom filter of its keys, with 1% false positive rate
+  at the expected size. When the cache is an upstream of a multi-tier cache, lookups of keys that
+  are definitely not in the cache are skipped.
+
+  The filter is updated on writes and rebuilt in background after invalidations. Other cache
+  implementations can provide the same by implementing ICache.mightContain, which is more useful
+  for caches that are expensive to query, e.g. disk or remote caches."
+  :memento.caffeine/key-filter)
+
+(def metrics
+  "Cache setting, boolean flag, enabling collection of per-function metrics.
+
+  Unlike `stats`, which are for the whole cache, these are kept separately for each
+  function (Segment) using the cache: hits, misses, loads, load failures, load time histogram,
+  waits on loads in progress by other threads, evictions and invalidations.
+
+  See memento.caffeine/segment-stats."
+  :memento.caffeine/metrics)
+
+(def metrics-sample
+  "Cache setting, an int. If set, metrics record only one in this many hits (multiplied by
+  the sample rate), which lowers the overhead of hits. Other events are always recorded."
+  :memento.caffeine/metrics-sample)
+
+(def metrics-jmx
+  "Cache setting, a string, name of the cache in JMX. If set, metrics of each function are registered as
+  an MXBean named memento:type=SegmentStats,cache=<name>,segment=<segment id>. Use
+  memento.caffeine/unregister-metrics to unregister them when the cache is discarded."
+  :memento.caffeine/metrics-jmx)
+
+(def mrc
+  "Cache setting, true or a sequence of ratios, e.g. [0.5 2 4].
+
+  If set, the cache continuously estimates the hit ratio it would have at these ratios of its
+  current size< or weight< (default [0.5 1 2 4]), using sampled ghost caches of keys.
+  The cache must have size< or weight< set.
+
+  See memento.caffeine/miss-ratio-curve."
+  :memento.caffeine/mrc)
+
+(def mrc-sample
+  "Cache setting, a double, the ratio of keys sampled by mrc profiler.
+
+  Defaults to a rate that keeps about 4096 keys in the 1x ghost cache for size limited caches and 0.01
+  for weight limited caches. Lower rates have lower overhead, but less accurate estimates."
+  :memento.caffeine/mrc-sample)
+
+(def hot-keys
+  "Cache setting, true or an int k, the size of top lists (default 10).
+
+  If set, the cache tracks the k most frequently accessed keys (with a count-min sketch),
+  the k slowest loads, and the k keys with most threads waiting on another thread's load.
+
+  If metrics-jmx is also set, the lists are registered as an MXBean named memento:type=KeyProfiler,cache=<name>.
+
+  See memento.caffeine/hot-keys."
+  :memento.caffeine/hot-keys)
+
+(def hot-keys-sample
+  "Cache setting, an int. If set, access frequency is tracked only for one in this many accesses."
+  :memento.caffeine/hot-keys-sample)
+
+(def footprint
+  "Cache setting, true or a duration (default 1 minute).
+
+  If set, the cache is periodically scanned in a background thread, estimating heap used by entries of each function
+  and each tag, see memento.caffeine/footprint. The scan uses a weakly consistent iterator and pauses between
+  chunks of entries, so it doesn't stall the cache."
+  :memento.caffeine/footprint)
+
+(def footprint-sample
+  "Cache setting, a double between 0 and 1 (default 0.1), ratio of entries whose size is estimated by footprint scans,
+  usage of the rest is extrapolated."
+  :memento.caffeine/footprint-sample)
+
+(def quotas
+  "Cache setting, true or a map of segment id to quota, with optional :default key for other segments.
+
+  Enables per segment quotas in a shared cache, which must have size< or weight<: a quota limits the number of entries of a function in the cache,
+  or their total weight if the cache is weighted. When a function goes over its quota, its own coldest entries are
+  removed. Functions can also specify their quota with quota bind setting.
+
+  Enabling quotas makes the cache run maintenance and removal listener on the calling thread.
+
+  See memento.caffeine/quotas."
+  :memento.caffeine/quotas)
+
+(def quota
+  "Function bind setting, a long. Quota of the function in a cache that has quotas or fair-share enabled,
+  see quotas."
+  :memento.caffeine/quota)
+
+(derive quota :memento.mount/conf)
+
+(def fair-share
+  "Cache setting, a boolean. The cache must have size< or weight<.
+
+  Once the cache is 90% full, functions using more than an equal share of the cache limit are trimmed
+  (their own coldest entries are removed) until the cache is back under 90%. This keeps one high cardinality function
+  from evicting hot entries of all other functions, while letting any function use free space.
+
+  Enabling fair share makes the cache run maintenance and removal listener on the calling thread."
+  :memento.caffeine/fair-share)
+
+(def budget
+  "Cache setting, a BudgetManager created by memento.caffeine/budget-manager.
+
+  The cache's limit is managed by the budget manager, which moves capacity between its caches to where it saves
+  most load time. The cache must have size< or weight< (in the same unit as other caches in the budget) and
+  mrc enabled. The cache appears in the budget by its metrics-jmx name, if set."
+  :memento.caffeine/budget)
+
+(def cost-aware
+  "Cache setting, true or a duration, the reference load time (default 1 ms). The cache must have weight<.
+
+  Caffeine evicts by frequency and recency only. With this setting, the load time of each entry is recorded
+  and its weight is scaled by reference load time / load time (within 1/16 to 16), so entries that are
+  expensive to recompute take less of the weight limit and the cache holds more of them. This reduces
+  total recomputation time rather than miss count."
+  :memento.caffeine/cost-aware)
+
+(def doorkeeper
+  "Cache setting, true or an int n (default 2).
+
+  Loaded values are cached only once their key was requested n times recently, earlier loads
+  are returned without being cached. Keys that are requested once, such as in scans and batch jobs,
+  then don't take space in the cache and the tag index, and don't evict other entries.
+
+  Requests are counted approximately, in a count-min sketch, see doorkeeper-window."
+  :memento.caffeine/doorkeeper)
+
+(def doorkeeper-window
+  "Cache setting, an int. Approximate number of requests over which doorkeeper counts requests of a key,
+  defaults to 10 times size< or 100000, whichever is larger."
+  :memento.caffeine/doorkeeper-window)
+
+(def l0
+  "Cache setting, true or an int number of slots per thread (default 16).
+
+  Each thread keeps a tiny direct-mapped cache of entries it hit, in front of the Caffeine cache.
+  Hits of the hottest keys then don't touch shared memory. Any invalidation or overwrite of an entry
+  in the cache invalidates all L0 entries in all threads. Every 16th L0 hit of a thread also reads the Caffeine
+  cache, so hot keys stay hot for its eviction policy and fade, and entries evicted in the meantime are dropped.
+
+  L0 is bypassed while trace, miss ratio curve or hot keys profiling is active. Each thread holds on to
+  its entries, so it's not meant for caches used by many virtual threads, or for large values."
+  :memento.caffeine/l0)
+
+(def l0-max-age
+  "Cache setting, a duration. L0 notices evictions and expiry in the cache only on sampled hits, so it doesn't
+  return entries older than this. Defaults to 100ms if the cache has ttl, fade or expiry, otherwise entries don't age."
+  :memento.caffeine/l0-max-age)
+
+(def stripes
+  "Cache setting, true or an int power of 2.
+
+  Keys are partitioned by hash between this many independent Caffeine caches, so bursts of loads, such as
+  on cold start or after invalidation, don't all contend on a single cache's write buffer and maintenance lock.
+  True uses number of processors, rounded up to a power of 2.
+
+  size<, weight<, initial-capacity and key-filter are divided between the stripes, so a stripe can evict entries
+  before the whole cache is full. Invalidation, as-map and stats cover all stripes. Metrics, mrc, hot-keys, doorkeeper
+  and l0 are shared between stripes, and memento.trace records accesses of all stripes into one trace.
+  Can't be used with quotas, fair-share, footprint or budget."
+  :memento.caffeine/stripes)
+
+(def compress
+  "Cache setting, true or an int number of bytes (default 4096).
+
+  Values with at least this estimated size are stored encoded by the codec and decoded on every hit, trading CPU
+  for memory in caches of large values. Values that can't be encoded or don't get smaller are stored as they are.
+  With weight< the compressed entries weigh their compressed size in bytes, also when kv-weight is set.
+
+  L0 holds the compressed form. Ignored with weak or soft values."
+  :memento.caffeine/compress)
+
+(def codec
+  "Cache setting, a memento.base.Codec instance used by compress. Default is memento.base.DeflateCodec, Java
+  serialization compressed with Deflater, which stores values that aren't Serializable, or don't deserialize back,
+  uncompressed."
+  :memento.caffeine/codec)
+
 (def meta-expiry
   "A memento.caffeine.Expiry instance that looks for fade and ttl keys on object metas and uses those to control
   variable expiry."
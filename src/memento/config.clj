@@ -28,6 +28,13 @@
 
 (def ^:dynamic *default-type* "Default cache type." :memento.core/none)
 
+(def ^:dynamic *lazy*
+  "If true, then caches are created lazily, as if they had the lazy setting. Caches that do no
+  caching are never lazy.
+
+  Initially has the value of java property `memento.lazy` (defaulting to false)."
+  (Boolean/valueOf (System/getProperty "memento.lazy" "false")))
+
 (def type
   "Cache setting, type of cache or region that will be instantiated, a keyword.
 
@@ -38,6 +45,14 @@
   If not specified the caches created default to *default-type*."
   :memento.core/type)
 
+(def lazy
+  "Cache setting, a boolean. If true, then the cache is not instantiated until it is first
+  used to produce a value. Entries added before that (e.g. seed) are queued and loaded when
+  the cache is instantiated.
+
+  Defaults to value of *lazy*."
+  :memento.core/lazy)
+
 (def bind-mode
   "Function bind setting, defaults to :new. It governs what the bind will do if you try to bind
   a cache to a function that is already cached, e.g. what happens when memo is called multiple times
@@ -152,6 +167,18 @@
   as they often need a name for each function's cache."
   :memento.core/id)
 
+(def min-load-time
+  "Function bind setting, a duration or a map.
+
+  Results whose load took less than this are returned but not cached, as with memento.core/do-not-cache.
+  This keeps cheap results from taking memory and churning the cache.
+
+  Instead of a fixed duration, a map can specify a target:
+  - :fraction, fraction of loads to cache, the slowest ones (based on recent loads)
+  - :min, minimum threshold duration, defaults to 0
+  - :max, maximum threshold duration, defaults to unlimited"
+  :memento.core/min-load-time)
+
 (def timeunits
   "Timeunits keywords, corresponds with Durations class."
   {:ns TimeUnit/NANOSECONDS
@@ -5,9 +5,11 @@
             [memento.caffeine]
             [memento.multi :as multi]
             [memento.mount :as mount])
-  (:import (java.util IdentityHashMap)
+  (:import (clojure.lang MapEntry)
+           (java.util IdentityHashMap)
+           (java.util.concurrent ConcurrentHashMap)
            (java.util.function BiFunction)
-           (memento.base EntryMeta ICache LockoutTag)
+           (memento.base EntryMeta ICache LockoutTag Population)
            (memento.mount Cached IMountPoint)))
 
 (defn do-not-cache
@@ -16,7 +18,7 @@
   [v]
   (if (instance? EntryMeta v)
     (do (.setNoCache ^EntryMeta v true) v)
-    (EntryMeta. v true #{})))
+    (EntryMeta. v true nil)))
 
 (defn with-tag-id
   "Wrap a function result value in a wrapper that has the given additional
@@ -24,9 +26,10 @@
 
   This information is later used by memo-clear-tag!."
   [v tag id]
-  (if (instance? EntryMeta v)
-    (do (.setTagIdents ^EntryMeta v (conj (.getTagIdents ^EntryMeta v) [tag id])) v)
-    (EntryMeta. v false #{[tag id]})))
+  (let [ident (MapEntry/create tag id)]
+    (if (instance? EntryMeta v)
+      (do (.addTagIdent ^EntryMeta v ident) v)
+      (doto (EntryMeta. v false nil) (.addTagIdent ident)))))
 
 (defn create
   "Create a cache.
@@ -220,6 +223,27 @@
   `(binding [mount/*caches* (mount/update-existing mount/*caches* (get @mount/tags ~tag []) ~cache-fn)]
      ~@body))
 
+(defmacro with-no-populate
+  "Within the block, memoized calls return existing cache entries, but values loaded on a miss
+  are not cached. Use this for scans and bulk jobs, so they don't flush the hot entries of shared caches.
+
+  Concurrent misses of the same key within the block are not deduplicated. Supported by Caffeine
+  and multi-tier caches."
+  [& body]
+  `(binding [base/*populate* false]
+     (Population/enter)
+     (try ~@body (finally (Population/exit)))))
+
+(defmacro with-scope-layer
+  "Within the block, memoized calls return existing cache entries, and values loaded on a miss
+  are cached only in a map local to the block, which is discarded at its end. Caches are not populated.
+
+  Supported by Caffeine and multi-tier caches."
+  [& body]
+  `(binding [base/*populate* (ConcurrentHashMap.)]
+     (Population/enter)
+     (try ~@body (finally (Population/exit)))))
+
 (defn evt-cache-add
   "Convenience function. It creates or wraps event handler fn,
   with an implementation which expects an event to be a vector of
@@ -243,11 +267,17 @@
   Useful when upstream is a big cache that outside the JVM, but it's not that inexpensive, so you
   want a local smaller cache in front of it.
 
-  Invalidation operations also affect upstream. Other operations only affect local cache."
-  [cache upstream]
-  {::type ::tiered
-   ::multi/cache cache
-   ::multi/upstream upstream})
+  Invalidation operations also affect upstream. Other operations only affect local cache.
+
+  Options map can specify :memento.multi/hedge, which makes upstream calls hedged and circuit broken,
+  see memento.multi/upstream-guard, and :memento.multi/promote, which copies only values read
+  from upstream repeatedly into the local cache, see memento.multi/promotion-policy."
+  ([cache upstream] (tiered cache upstream {}))
+  ([cache upstream opts]
+   (merge opts
+          {::type ::tiered
+           ::multi/cache cache
+           ::multi/upstream upstream})))
 
 (defn consulting
   "Creates a configuration for a consulting tiered cache. Both parameters are either a conf map or a cache.
@@ -260,11 +290,17 @@
   Useful when you want to consult a long term upstream cache for existing entries, but you don't want any
   entries being created for the short term cache to be pushed upstream.
 
-  Invalidation operations also affect upstream. Other operations only affect local cache."
-  [cache upstream]
-  {::type ::consulting
-   ::multi/cache cache
-   ::multi/upstream upstream})
+  Invalidation operations also affect upstream. Other operations only affect local cache.
+
+  Options map can specify :memento.multi/hedge, which makes upstream calls hedged and circuit broken,
+  see memento.multi/upstream-guard, and :memento.multi/promote, which copies only values read
+  from upstream repeatedly into the local cache, see memento.multi/promotion-policy."
+  ([cache upstream] (consulting cache upstream {}))
+  ([cache upstream opts]
+   (merge opts
+          {::type ::consulting
+           ::multi/cache cache
+           ::multi/upstream upstream})))
 
 (defn daisy
   "Creates a configuration for a daisy chained cache. Cache parameter is a conf map or a cache.
@@ -279,11 +315,40 @@
   - a preloaded fixed cache
   - manually adding entries
 
-  Invalidation operations also affect upstream. Other operations only affect local cache."
-  [cache upstream]
-  {::type ::daisy
-   ::multi/cache cache
-   ::multi/upstream upstream})
+  Invalidation operations also affect upstream. Other operations only affect local cache.
+
+  Options map can specify :memento.multi/hedge, which makes upstream calls hedged and circuit broken,
+  see memento.multi/upstream-guard."
+  ([cache upstream] (daisy cache upstream {}))
+  ([cache upstream opts]
+   (merge opts
+          {::type ::daisy
+           ::multi/cache cache
+           ::multi/upstream upstream})))
+
+(defn chain
+  "Creates a configuration for a chain of caches, ordered from fastest to slowest. Each
+  tier is either a conf map or a cache, or a map with tier options:
+  - :memento.multi/tier, conf map or a cache
+  - :memento.multi/read, if false, the tier is not consulted for entries, defaults to true
+  - :memento.multi/write, one of :sync, :async, :none, defaults to :async
+
+  Entry is fetched from the first cache, if not found, the readable tiers are asked in order.
+  If no tier has the entry, it is calculated. After the operation the entry is in the first cache
+  and it's written to the tiers that didn't have it, according to their write policy.
+
+  Asynchronous writes go through a bounded write-behind queue, written in batches by a background thread.
+  If queue is full, the write is done by the caller. Options for the queue can be provided as a map:
+  - :memento.multi/queue-size, defaults to 10000
+  - :memento.multi/batch-size, defaults to 256
+
+  Invalidation operations affect all tiers and drop pending writes. Other operations only affect the
+  first cache."
+  ([tiers] (chain tiers {}))
+  ([tiers opts]
+   (merge opts
+          {::type ::chain
+           ::multi/tiers (vec tiers)})))
 
 (defmacro if-cached
   "Like if-let, but then clause is executed if the call in the binding is cached, with the binding symbol
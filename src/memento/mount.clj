@@ -5,7 +5,7 @@
   (:require [memento.base :as base]
             [memento.config :as config])
   (:import (clojure.lang AFn ISeq MultiFn)
-           (memento.base ICache Segment)
+           (memento.base Durations EntryMeta ICache LoadTimeAdmission Segment)
            (memento.mount Cached CachedFn CachedMultiFn IMountPoint)))
 
 (def ^:dynamic *caches* "Contains map of mount point to cache instance" {})
@@ -21,6 +21,7 @@
 (derive config/ret-ex-fn ::conf)
 (derive config/ttl ::conf)
 (derive config/fade ::conf)
+(derive config/min-load-time ::conf)
 
 (defn assoc-cache-tags
   "Add Mount Point ref to tag index"
@@ -87,6 +88,30 @@
                      (catch Throwable t (throw (ret-ex-fn args t)))))
     :else f))
 
+(defn load-time-admission
+  "Creates LoadTimeAdmission for min-load-time setting."
+  ^LoadTimeAdmission [min-load-time]
+  (if (map? min-load-time)
+    (let [{:keys [fraction min max]} min-load-time]
+      (LoadTimeAdmission. (double fraction)
+                          (if min (Durations/nanos min) 0)
+                          (if max (Durations/nanos max) Long/MAX_VALUE)))
+    (LoadTimeAdmission. (Durations/nanos min-load-time))))
+
+(defn wrap-admission
+  "Wraps f so results of loads faster than min-load-time are marked as not to be cached."
+  [f min-load-time]
+  (if min-load-time
+    (let [admission (load-time-admission min-load-time)]
+      (fn [& args]
+        (let [start (System/nanoTime)
+              ret (AFn/applyToHelper f args)]
+          (cond
+            (.admit admission (- (System/nanoTime) start)) ret
+            (instance? EntryMeta ret) (doto ^EntryMeta ret (.setNoCache true))
+            :else (EntryMeta. ret true nil)))))
+    f))
+
 (defn create-mount
   "Create mount record by specified map conf"
   [f cache mount-conf]
@@ -95,7 +120,8 @@
                      (fn [args] (AFn/applyToHelper base (if (instance? ISeq args) args (seq args)))))
                    identity)
         evt-fn (config/evt-fn mount-conf (fn [_ _] nil))
-        f* (wrap-fn f (config/ret-fn mount-conf) (config/ret-ex-fn mount-conf))
+        f* (-> (wrap-fn f (config/ret-fn mount-conf) (config/ret-ex-fn mount-conf))
+               (wrap-admission (config/min-load-time mount-conf)))
         segment (Segment. f* key-fn (mount-conf config/id f) mount-conf)]
     (if-let [t (config/tags mount-conf)]
       (let [wrapped-t (if (sequential? t) t (vector t))
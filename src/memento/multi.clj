@@ -1,8 +1,47 @@
 (ns memento.multi
   {:author "Rok Lenarčič"}
   (:require [memento.base :as b])
-  (:import (memento.base ICache)
-           (memento.multi ConsultingCache DaisyChainCache MultiCache TieredCache)))
+  (:import (memento.base Durations ICache)
+           (memento.multi ChainCache ConsultingCache DaisyChainCache MultiCache PromotionPolicy TieredCache UpstreamGuard WriteBehind)))
+
+(def hedge-defaults {:percentile 0.95
+                     :min-delay [1 :ms]
+                     :max-delay [1 :s]
+                     :failures 5
+                     :cool-down [10 :s]})
+
+(defn upstream-guard
+  "Creates UpstreamGuard from ::hedge option of multi cache conf, which is true or a map
+  of options (see hedge-defaults), returns nil if option isn't set."
+  [conf]
+  (when-let [hedge (::hedge conf)]
+    (let [{:keys [percentile min-delay max-delay failures cool-down]}
+          (merge hedge-defaults (when (map? hedge) hedge))]
+      (UpstreamGuard. (double percentile)
+                      (Durations/nanos min-delay)
+                      (Durations/nanos max-delay)
+                      (int failures)
+                      (Durations/nanos cool-down)))))
+
+(def promote-defaults {:hits 2
+                       :window 100000
+                       :max-weight 0})
+
+(defn promotion-policy
+  "Creates PromotionPolicy from ::promote option of multi cache conf, which is number of upstream reads
+  needed to copy the value into the local cache, or a map of options (see promote-defaults). Upstream reads
+  are hits, and for tiered caches also values the upstream loaded on a miss:
+  - :hits, number of upstream reads within the window needed to promote
+  - :window, approximate number of upstream reads over which reads are counted
+  - :max-weight, values heavier than this are never promoted, 0 means no limit
+  - :weigher, (fn [f key value] weight), defaults to estimated size in bytes
+
+  Returns nil if option isn't set."
+  [conf]
+  (when-let [promote (::promote conf)]
+    (let [{:keys [hits window max-weight weigher]}
+          (merge promote-defaults (if (map? promote) promote {:hits promote}))]
+      (PromotionPolicy. (int hits) (int window) (long max-weight) weigher))))
 
 (comment
   "A daisy chained cache.
@@ -14,7 +53,7 @@
 (defmethod b/new-cache :memento.core/daisy [conf]
   (let [^ICache cache (b/base-create-cache (::cache conf))
         ^ICache upstream (b/base-create-cache (::upstream conf))]
-    (DaisyChainCache. cache upstream conf b/absent)))
+    (DaisyChainCache. cache upstream conf b/absent (upstream-guard conf))))
 
 (comment
   "A tiered cache.
@@ -25,7 +64,7 @@
 (defmethod b/new-cache :memento.core/tiered [conf]
   (let [^ICache cache (b/base-create-cache (::cache conf))
         ^ICache upstream (b/base-create-cache (::upstream conf))]
-    (TieredCache. cache upstream conf b/absent)))
+    (TieredCache. cache upstream conf b/absent (upstream-guard conf) (promotion-policy conf))))
 
 (comment
   "A consulting tiered cache.
@@ -38,10 +77,82 @@
 (defmethod b/new-cache :memento.core/consulting [conf]
   (let [^ICache cache (b/base-create-cache (::cache conf))
         ^ICache upstream (b/base-create-cache (::upstream conf))]
-    (ConsultingCache. cache upstream conf b/absent)))
+    (ConsultingCache. cache upstream conf b/absent (upstream-guard conf) (promotion-policy conf))))
+
+(comment
+  "A chain of caches.
+
+  Entry is fetched from the first cache, then from the readable tiers in order. The value is then
+  written to the first cache and the tiers that missed, according to their write policy.")
+
+(def write-policies {:sync ChainCache/WRITE_SYNC
+                     :async ChainCache/WRITE_ASYNC
+                     :none ChainCache/WRITE_NONE})
+
+(defn tier-spec
+  "Transform tier parameter to canonical form of a map."
+  [tier]
+  (if (and (map? tier) (contains? tier ::tier))
+    tier
+    {::tier tier}))
+
+(defmethod b/new-cache :memento.core/chain [conf]
+  (let [tiers (mapv tier-spec (::tiers conf))]
+    (when (empty? tiers)
+      (throw (ex-info "Chain cache needs at least one tier" {:conf conf})))
+    (doseq [{w ::write} tiers
+            :when (and w (not (contains? write-policies w)))]
+      (throw (ex-info (str "Unknown chain tier write policy " w) {:write w :policies (keys write-policies)})))
+    (ChainCache. (into-array ICache (map #(b/base-create-cache (::tier %)) tiers))
+                 (boolean-array (map #(::read % true) tiers))
+                 (int-array (map #(write-policies (::write % :async)) tiers))
+                 (WriteBehind. (::queue-size conf 10000) (::batch-size conf 256))
+                 conf
+                 b/absent)))
+
+(defn tiers [^ChainCache chain-cache]
+  (vec (.getTiers chain-cache)))
+
+(defn flush-writes!
+  "Block until pending asynchronous writes of a chain cache are written into tiers."
+  [^ChainCache chain-cache]
+  (.flush (.getWriteBehind chain-cache))
+  chain-cache)
 
 (defn delegate [^MultiCache multi-cache]
   (.getDelegate multi-cache))
 
 (defn upstream [^MultiCache multi-cache]
   (.getUpstream multi-cache))
+
+(defn upstream-stats
+  "Returns statistics of upstream calls of a multi cache with ::hedge option, nil otherwise.
+
+  - :calls, number of upstream calls
+  - :hits, number of calls where upstream returned a value
+  - :hedged, number of calls where upstream took longer than hedge delay, so the value was also calculated locally
+  - :errors, number of calls where upstream threw an exception
+  - :skipped, number of calls that bypassed upstream, because breaker was open
+  - :trips, number of times the breaker opened
+  - :open?, true if breaker is currently open
+  - :hedge-delay-ns, current hedge delay in nanoseconds"
+  [^MultiCache multi-cache]
+  (when-let [^UpstreamGuard g (.getGuard multi-cache)]
+    {:calls (.getCalls g)
+     :hits (.getHits g)
+     :hedged (.getHedged g)
+     :errors (.getErrors g)
+     :skipped (.getSkipped g)
+     :trips (.getTrips g)
+     :open? (.isOpen g)
+     :hedge-delay-ns (.getHedgeDelay g)}))
+
+(defn promotion-stats
+  "Returns statistics of upstream hits of a tiered or consulting cache with ::promote option, nil otherwise.
+
+  - :promoted, number of upstream hits copied into the local cache
+  - :rejected, number of upstream hits returned without copying them into the local cache"
+  [^MultiCache multi-cache]
+  (when-let [^PromotionPolicy p (.getPromotion multi-cache)]
+    {:promoted (.getPromoted p)
+     :rejected (.getRejected p)}))
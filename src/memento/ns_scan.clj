@@ -2,7 +2,8 @@
   "Scan loaded namespaces for vars that have meta that
   specifies a cache, and attach cache to those vars."
   {:author "Rok Lenarčič"}
-  (:require [memento.core :as core]))
+  (:require [memento.config :as config]
+            [memento.core :as core]))
 
 (def default-blacklist [#"^clojure\." #"^nrepl\."])
 
@@ -38,10 +39,18 @@
   You can specify a namespace black-list. It's a list of regexes,
   which are applied to namespace name with re-find (so you only need to match
   part of the name). The value defaults to default-blacklist, which
-  blacklists clojure.* and nrepl.*"
+  blacklists clojure.* and nrepl.*
+
+  Options map supports:
+  - :parallel, if true, the caches are created and attached (and seeds loaded) in parallel
+  - :lazy, if true, the caches are created lazily, see memento.config/lazy"
   ([]
    (attach-caches default-blacklist))
   ([ns-black-list]
-   (filterv
-     memoize-if-configured
-     (vars ns-black-list))))
+   (attach-caches ns-black-list {}))
+  ([ns-black-list {:keys [parallel lazy]}]
+   (binding [config/*lazy* (if (some? lazy) lazy config/*lazy*)]
+     (let [vs (filter #(::core/cache (meta %)) (vars ns-black-list))]
+       (if parallel
+         (into [] (filter some?) (pmap memoize-if-configured vs))
+         (filterv memoize-if-configured vs))))))
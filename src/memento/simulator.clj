@@ -0,0 +1,188 @@
+(ns memento.simulator
+  "Offline replay of access traces against candidate cache configurations, and synthetic
+  workload generators.
+
+  A trace is a sequence of access maps, as returned by memento.trace/read-trace:
+  - :segment, segment id
+  - :key, key hash
+  - :time, nanoseconds
+  - :load-ns, load time in nanoseconds if known
+  - :weight, value weight if known"
+  {:author "Rok Lenarčič"}
+  (:require [memento.caffeine :as caffeine]
+            [memento.config :as mc])
+  (:import (com.github.benmanes.caffeine.cache Cache Weigher)
+           (java.util Arrays HashMap Map Random)
+           (java.util.concurrent Executor)
+           (memento.base CacheKey)))
+
+;;;;;;;;;;;;;;;;;;;;;;;;
+; Workload generators
+
+(defn zipf-trace
+  "Synthetic trace where key popularity follows Zipf distribution with exponent :s.
+
+  Options:
+  - :keys, number of distinct keys, defaults to 10000
+  - :events, number of accesses, defaults to 100000
+  - :s, Zipf exponent, defaults to 1.0
+  - :load-ns, load time of each key, defaults to 1ms
+  - :weight, weight of each value, defaults to 1
+  - :interval-ns, time between accesses, defaults to 1µs
+  - :segment, segment id, defaults to \"zipf\"
+  - :seed, random seed, defaults to 0"
+  ([] (zipf-trace {}))
+  ([{n-keys :keys :keys [events s load-ns weight interval-ns segment seed]
+     :or {n-keys 10000 events 100000 s 1.0 load-ns 1000000 weight 1 interval-ns 1000 segment "zipf" seed 0}}]
+   (let [cdf (double-array n-keys)
+         rnd (Random. seed)]
+     (loop [i 0 sum 0.0]
+       (when (< i n-keys)
+         (let [sum (+ sum (/ 1.0 (Math/pow (inc i) s)))]
+           (aset cdf i sum)
+           (recur (inc i) sum))))
+     (let [total (aget cdf (dec n-keys))]
+       (mapv (fn [i]
+               (let [idx (Arrays/binarySearch cdf (* total (.nextDouble rnd)))]
+                 {:segment segment
+                  :key (if (neg? idx) (- (inc idx)) idx)
+                  :time (* i interval-ns)
+                  :load-ns load-ns
+                  :weight weight}))
+             (range events))))))
+
+(defn scan-trace
+  "Synthetic trace that accesses keys in sequence, over and over.
+
+  Options are the same as for zipf-trace, segment defaults to \"scan\"."
+  ([] (scan-trace {}))
+  ([{n-keys :keys :keys [events load-ns weight interval-ns segment]
+     :or {n-keys 10000 events 100000 load-ns 1000000 weight 1 interval-ns 1000 segment "scan"}}]
+   (mapv (fn [i]
+           {:segment segment
+            :key (mod i n-keys)
+            :time (* i interval-ns)
+            :load-ns load-ns
+            :weight weight})
+         (range events))))
+
+(defn merge-traces
+  "Merge traces into one, ordered by time."
+  [& traces]
+  (vec (sort-by :time (apply concat traces))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;
+; Simulation
+
+(def ^:private sim-settings [mc/size< mc/ttl mc/fade mc/initial-capacity])
+
+(defn- sim-cache ^Cache [conf ^longs now]
+  (when-not (= mc/caffeine (mc/type conf mc/caffeine))
+    (throw (ex-info "Only Caffeine caches can be simulated" {:conf conf})))
+  ;; weight< is set here, conf->builder would also set the estimating weigher
+  (-> (caffeine/conf->builder (assoc (select-keys conf sim-settings)
+                                :memento.caffeine/ticker #(aget now 0)))
+      ;; values in simulated caches are value weights
+      (cond-> (:memento.caffeine/weight< conf) (-> (.maximumWeight (:memento.caffeine/weight< conf))
+                                                   (.weigher (reify Weigher (weigh [_ _ v] (int v))))))
+      (.executor (reify Executor (execute [_ r] (.run r))))
+      (.build)))
+
+(defn- sim-tiers
+  "Returns a vector of [Cache populate?] for the conf."
+  [conf now]
+  (condp = (mc/type conf)
+    :memento.core/tiered [[(sim-cache (:memento.multi/cache conf) now) true]
+                          [(sim-cache (:memento.multi/upstream conf) now) true]]
+    :memento.core/consulting [[(sim-cache (:memento.multi/cache conf) now) true]
+                              [(sim-cache (:memento.multi/upstream conf) now) false]]
+    [[(sim-cache conf now) true]]))
+
+(defn- resident-weight ^long [^Cache c]
+  (.cleanUp c)
+  (reduce + 0 (.values (.asMap c))))
+
+(defn simulate
+  "Replay the trace against a cache configuration, a Caffeine conf map or a tiered or consulting
+  conf of two Caffeine conf maps. Only size, weight, ttl and fade settings are simulated, ttl and fade must
+  be durations. Values in the simulated cache weigh as recorded in the trace.
+
+  Load time of an access is taken from the access, or the last known load time of the key or the
+  average load time of the segment.
+
+  Returns a map:
+  - :events, :hits, :misses and :hit-ratio
+  - :load-time-ns, estimated time spent loading on misses
+  - :load-time-saved-ns, estimated load time saved by hits
+  - :trace-hit-ratio, ratio of accesses in trace without a load time, i.e. hits in a recorded trace
+  - :tiers, a vector of maps with :hits, :avg-weight and :max-weight of values in each tier, sampled
+    over the course of the replay"
+  [trace conf]
+  (let [now (long-array 1)
+        tiers (sim-tiers conf now)
+        n-tiers (count tiers)
+        trace (vec trace)
+        events (count trace)
+        sample-every (max 1 (quot events 100))
+        ^Map key-loads (HashMap.)
+        ^Map key-weights (HashMap.)
+        ^Map seg-loads (HashMap.)
+        tier-hits (long-array n-tiers)
+        weight-sum (long-array n-tiers)
+        weight-max (long-array n-tiers)
+        samples (volatile! 0)
+        hits (volatile! 0)
+        traced-hits (volatile! 0)
+        load-time (volatile! 0)
+        saved (volatile! 0)]
+    (dotimes [i events]
+      (let [{:keys [segment key time load-ns weight]} (trace i)
+            k (CacheKey. segment key)
+            _ (aset now 0 (long time))
+            _ (when load-ns
+                (.put key-loads k load-ns)
+                (let [[s c] (.getOrDefault seg-loads segment [0 0])]
+                  (.put seg-loads segment [(+ s load-ns) (inc c)])))
+            _ (when-not load-ns (vswap! traced-hits inc))
+            _ (when (and weight (pos? weight)) (.put key-weights k weight))
+            est (or load-ns
+                    (.get key-loads k)
+                    (let [[s c] (.get seg-loads segment)] (when c (quot s c)))
+                    0)
+            w (long (.getOrDefault key-weights k 1))
+            found (loop [t 0]
+                    (when (< t n-tiers)
+                      (if (.getIfPresent ^Cache (first (tiers t)) k) t (recur (inc t)))))]
+        (if found
+          (do (vswap! hits inc)
+              (vswap! saved + est)
+              (aset tier-hits found (inc (aget tier-hits found)))
+              (dotimes [t found]
+                (let [[^Cache c populate?] (tiers t)]
+                  (when populate? (.put c k w)))))
+          (do (vswap! load-time + est)
+              (doseq [[^Cache c populate?] tiers]
+                (when populate? (.put c k w)))))
+        (when (zero? (mod (inc i) sample-every))
+          (vswap! samples inc)
+          (dotimes [t n-tiers]
+            (let [rw (resident-weight (first (tiers t)))]
+              (aset weight-sum t (+ (aget weight-sum t) rw))
+              (aset weight-max t (max (aget weight-max t) rw)))))))
+    {:events events
+     :hits @hits
+     :misses (- events @hits)
+     :hit-ratio (if (pos? events) (double (/ @hits events)) 0.0)
+     :load-time-ns @load-time
+     :load-time-saved-ns @saved
+     :trace-hit-ratio (if (pos? events) (double (/ @traced-hits events)) 0.0)
+     :tiers (mapv (fn [t] {:hits (aget tier-hits t)
+                           :avg-weight (if (pos? @samples) (quot (aget weight-sum t) @samples) 0)
+                           :max-weight (aget weight-max t)})
+                  (range n-tiers))}))
+
+(defn compare-configs
+  "Replay the trace against each of the named configurations, returns a map of name to simulate result."
+  [trace named-confs]
+  (let [trace (vec trace)]
+    (into {} (map (fn [[n conf]] [n (simulate trace conf)])) named-confs)))
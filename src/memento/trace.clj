@@ -0,0 +1,91 @@
+(ns memento.trace
+  "Recording of cache accesses for offline analysis, see memento.simulator."
+  {:author "Rok Lenarčič"}
+  (:require [clojure.java.io :as io]
+            [memento.base :as b]
+            [memento.caffeine :as caffeine])
+  (:import (java.io DataInputStream)
+           (memento.base ICache)
+           (memento.caffeine CaffeineCache_ TraceRecorder)
+           (memento.mount IMountPoint)))
+
+(defn- cache-of [fn-or-cache]
+  (b/realize (if (instance? ICache fn-or-cache)
+               fn-or-cache
+               (.mountedCache ^IMountPoint fn-or-cache))))
+
+(defn- caffeine-caches
+  "CaffeineCache_ instances of the cache, one per stripe, all of which record into the same TraceRecorder."
+  [fn-or-cache]
+  (let [cache (cache-of fn-or-cache)]
+    (or (caffeine/caffeine-caches cache)
+        (throw (ex-info "Tracing is only supported on Caffeine caches" {:cache cache})))))
+
+(defn start!
+  "Start recording accesses of a Caffeine cache (or memoized fn's cache) into a ring buffer.
+
+  Options:
+  - :capacity, max number of records kept, older records are overwritten, defaults to 1M
+  - :weigher, a function of (segment id, args, value) that returns value weight, defaults to
+    the cache's kv-weight, estimated size if the cache has weight< and no kv-weight, or 1
+
+  Returns TraceRecorder."
+  ([fn-or-cache] (start! fn-or-cache {}))
+  ([fn-or-cache {:keys [capacity weigher] :or {capacity 1000000}}]
+   (let [cs (caffeine-caches fn-or-cache)
+         {:memento.caffeine/keys [kv-weight weight<]} (.conf ^ICache (cache-of fn-or-cache))
+         weigher (or weigher kv-weight (when weight< caffeine/estimated-weight))
+         rec (TraceRecorder. (int capacity) weigher)]
+     (doseq [^CaffeineCache_ c cs]
+       (.setTraceRecorder c rec))
+     rec)))
+
+(defn stop!
+  "Stop recording accesses, returns TraceRecorder."
+  [fn-or-cache]
+  (let [cs (caffeine-caches fn-or-cache)
+        rec (.getTraceRecorder ^CaffeineCache_ (first cs))]
+    (doseq [^CaffeineCache_ c cs]
+      (.setTraceRecorder c nil))
+    rec))
+
+(defn recorder
+  "Returns current TraceRecorder of the cache, or nil."
+  [fn-or-cache]
+  (.getTraceRecorder ^CaffeineCache_ (first (caffeine-caches fn-or-cache))))
+
+(defn dump!
+  "Write recorded accesses to a file (or anything accepted by io/output-stream)."
+  [^TraceRecorder rec file]
+  (with-open [out (io/output-stream file)]
+    (.dump rec out))
+  file)
+
+(defn read-trace
+  "Read a trace dumped by dump!, returns a vector of access maps:
+  - :segment, segment id string
+  - :key, key hash
+  - :time, nanoseconds since start of recording
+  - :load-ns, load time in nanoseconds for misses, nil for hits
+  - :weight, value weight for misses"
+  [file]
+  (with-open [in (DataInputStream. (io/input-stream file))]
+    (when-not (and (= TraceRecorder/MAGIC (.readInt in))
+                   (= TraceRecorder/VERSION (.readInt in)))
+      (throw (ex-info "Not a memento trace file" {:file file})))
+    (let [segments (vec (repeatedly (.readInt in) #(.readUTF in)))
+          cnt (.readInt in)]
+      (loop [i 0 acc (transient [])]
+        (if (< i cnt)
+          (let [seg (.readInt in)
+                k (.readInt in)
+                t (.readLong in)
+                load-ns (.readLong in)
+                w (.readInt in)]
+            (recur (inc i)
+                   (conj! acc {:segment (segments seg)
+                               :key k
+                               :time t
+                               :load-ns (when-not (neg? load-ns) load-ns)
+                               :weight w})))
+          (persistent! acc))))))
@@ -5,7 +5,7 @@
             [memento.config :as mc]
             [memento.caffeine :refer :all]
             [memento.caffeine.config :as mcc])
-  (:import (memento.base CacheKey)))
+  (:import (memento.base CacheKey EntryMeta SizeEstimator)))
 
 #_(deftest cache-creation
   (testing "Creates a cache builder"
@@ -56,3 +56,405 @@
       (load-data (m/active-cache c) {["X" '(4)] 5})
       (is (= (b/as-map (m/active-cache c))
              {(CacheKey. "X" [4]) 5})))))
+
+(deftest segment-stats-test
+  (testing "Metrics are kept per function"
+    (let [cache (m/create {mc/type mc/caffeine mcc/metrics true mcc/metrics-jmx "segment-stats-test"})
+          f (m/memo inc {mc/id "f"} cache)
+          g (m/memo (fn [x] (when (neg? x) (throw (ex-info "neg" {}))) x) {mc/id "g"} cache)]
+      (f 1)
+      (f 1)
+      (f 1)
+      (g 1)
+      (is (thrown? Exception (g -1)))
+      (m/memo-clear! g 1)
+      (is (= {:hits 2 :misses 1 :loads 1 :load-failures 0 :waits 0 :invalidations 0}
+             (select-keys (segment-stats f) [:hits :misses :loads :load-failures :waits :invalidations])))
+      (is (= 1 (reduce + (vals (:load-time-histogram (segment-stats f))))))
+      (is (= #{"f" "g"} (set (keys (segment-stats cache)))))
+      (is (= {:misses 2 :loads 2 :load-failures 1}
+             (select-keys (segment-stats g) [:misses :loads :load-failures])))
+      (is (= 2 (.getAttribute (java.lang.management.ManagementFactory/getPlatformMBeanServer)
+                              (javax.management.ObjectName. "memento:type=SegmentStats,cache=\"segment-stats-test\",segment=\"f\"")
+                              "Hits")))
+      ;; removal listener runs asynchronously
+      (loop [i 0]
+        (when (and (< i 100) (zero? (:invalidations (segment-stats g))))
+          (Thread/sleep 10)
+          (recur (inc i))))
+      (is (= 1 (:invalidations (segment-stats g))))))
+  (testing "Recreated cache replaces MXBeans of the previous one"
+    (let [cache (m/create {mc/type mc/caffeine mcc/metrics true mcc/metrics-jmx "segment-stats-test"})
+          f (m/memo inc {mc/id "f"} cache)]
+      (f 1)
+      (is (= 0 (.getAttribute (java.lang.management.ManagementFactory/getPlatformMBeanServer)
+                              (javax.management.ObjectName. "memento:type=SegmentStats,cache=\"segment-stats-test\",segment=\"f\"")
+                              "Hits")))))
+  (testing "MXBeans are unregistered, but not those of a newer cache with the same name"
+    (let [server (java.lang.management.ManagementFactory/getPlatformMBeanServer)
+          n (javax.management.ObjectName. "memento:type=SegmentStats,cache=\"unregister-test\",segment=\"f\"")
+          conf {mc/type mc/caffeine mcc/metrics true mcc/metrics-jmx "unregister-test" mcc/hot-keys true}
+          kp (javax.management.ObjectName. "memento:type=KeyProfiler,cache=\"unregister-test\"")
+          old (m/create conf)
+          f (m/memo inc {mc/id "f"} old)]
+      (f 1)
+      (is (.isRegistered server n))
+      (unregister-metrics f)
+      (is (not (.isRegistered server n)))
+      (is (not (.isRegistered server kp)))
+      (let [old (m/create conf)
+            new (m/create conf)]
+        ((m/memo inc {mc/id "f"} old) 1)
+        ((m/memo inc {mc/id "f"} new) 1)
+        (unregister-metrics old)
+        (is (.isRegistered server n))
+        (is (.isRegistered server kp))
+        (unregister-metrics new)
+        (is (not (.isRegistered server n)))
+        (is (not (.isRegistered server kp))))))
+  (testing "Hits can be sampled"
+    (let [f (m/memo inc {mc/type mc/caffeine mcc/metrics true mcc/metrics-sample 4})]
+      (dotimes [_ 10000] (f 1))
+      (is (< 8000 (:hits (segment-stats f)) 12000)))))
+
+(deftest jfr-events-test
+  (testing "Loads, waits and invalidations are recorded when enabled"
+    (let [rec (doto (jdk.jfr.Recording.)
+                (.enable "memento.Load")
+                (.enable "memento.Wait")
+                (.enable "memento.InvalidateIds")
+                (.enable "memento.Lockout")
+                (.start))
+          f (m/memo (fn [x] (Thread/sleep 50) (m/with-tag-id x :x 1)) {mc/type mc/caffeine mc/tags [:x]})
+          file (java.io.File/createTempFile "memento" ".jfr")]
+      (try
+        (let [fut (future (f 1))]
+          (Thread/sleep 10)
+          (f 1)
+          @fut)
+        (m/memo-clear-tag! :x 1)
+        (.stop rec)
+        (.dump rec (.toPath file))
+        (let [events (jdk.jfr.consumer.RecordingFile/readAllEvents (.toPath file))
+              by-name (group-by #(.getName (.getEventType ^jdk.jfr.consumer.RecordedEvent %)) events)]
+          (is (= ["loaded"] (map #(.getString ^jdk.jfr.consumer.RecordedEvent % "outcome") (by-name "memento.Load"))))
+          (is (= 1 (count (by-name "memento.Wait"))))
+          (is (= [1] (map #(.getInt ^jdk.jfr.consumer.RecordedEvent % "entries") (by-name "memento.InvalidateIds"))))
+          (is (= 1 (count (by-name "memento.Lockout")))))
+        (finally
+          (.close rec)
+          (.delete file))))))
+
+(deftest miss-ratio-curve-test
+  (testing "Hit ratio estimates grow with cache size"
+    (let [f (m/memo identity {mc/type mc/caffeine mc/id "f" mc/size< 100 mcc/mrc true})
+          rnd (java.util.Random. 0)]
+      (dotimes [_ 50000] (f (long (Math/floor (Math/pow 1000 (.nextDouble rnd))))))
+      (let [{:keys [accesses sample-rate curve]} (miss-ratio-curve f)
+            hit-ratios (map :hit-ratio (vals curve))]
+        (is (= 1.0 sample-rate))
+        (is (= 50000 accesses))
+        (is (= [0.5 1.0 2.0 4.0] (keys curve)))
+        (is (= [50 100 200 400] (map :limit (vals curve))))
+        (is (apply < hit-ratios))
+        (is (< 0.5 (first hit-ratios)))))))
+
+(deftest hot-keys-test
+  (testing "Frequent, slow and contended keys are tracked"
+    (let [f (m/memo (fn [x] (when (= x :slow) (Thread/sleep 100)) x)
+                    {mc/type mc/caffeine mc/id "f" mcc/hot-keys 3})]
+      (dotimes [i 1000] (f (mod i 100)))
+      (dotimes [_ 500] (f 7))
+      (dotimes [_ 300] (f 8))
+      (let [fut (future (f :slow))]
+        (Thread/sleep 20)
+        (f :slow)
+        @fut)
+      (let [{:keys [frequent slow contended]} (hot-keys f)]
+        (is (= [[7] [8]] (map :args (take 2 frequent))))
+        (is (= 3 (count frequent)))
+        (is (= {:id "f" :args [:slow]} (dissoc (first slow) :load-ns)))
+        (is (<= 100000000 (:load-ns (first slow))))
+        (is (= [{:id "f" :args [:slow] :waits 1}] contended)))))
+  (testing "Hot keys list size must be positive"
+    (is (thrown? clojure.lang.ExceptionInfo (m/memo identity {mc/type mc/caffeine mcc/hot-keys 0}))))
+  (testing "Frequencies are halved gradually"
+    (let [p (memento.caffeine.KeyProfiler. 2 16 1)]
+      (dotimes [i 1000] (.accessed p (CacheKey. "f" [(mod i 3)])))
+      (is (= 2 (count (.frequent p))))
+      (is (every? #(< (val %) 1000) (.frequent p))))))
+
+(deftest estimated-weight-test
+  (testing "Size estimates grow with data"
+    (is (= 0 (estimate-size :a)))
+    (is (< (estimate-size "ab") (estimate-size (apply str (repeat 100 "ab")))))
+    (is (< (estimate-size [1 2 3]) (estimate-size (vec (range 1000 2000)))))
+    (is (< 1000 (estimate-size (byte-array 1000)) 1100))
+    (is (< (estimate-size {:a 1}) (estimate-size (zipmap (range 1000) (range 1000 2000)))))
+    (is (< 100000 (estimate-size (vec (repeat 100 (byte-array 1000))))))
+    (is (= 32 (estimate-size (map inc (range)))))
+    (is (< (estimate-size (java.util.HashMap. {:a 1})) (estimate-size (java.util.HashMap. (zipmap (range 1000) (range 1000 2000)))))))
+  (testing "Java maps are weighed"
+    (let [f (m/memo (fn [x] (java.util.HashMap. {x "value"})) {mc/type mc/caffeine mcc/weight< 10000})]
+      (is (= {1 "value"} (into {} (f 1))))
+      (is (= {1 "value"} (into {} (f 1))))))
+  (testing "Cache is bounded by estimated memory without kv-weight"
+    (let [f (m/memo (fn [x] (byte-array 1000)) {mc/type mc/caffeine mcc/weight< 10000})]
+      (dotimes [i 100] (f i))
+      ;; eviction runs asynchronously
+      (loop [i 0]
+        (when (and (< i 100) (<= 10 (count (b/as-map (m/active-cache f)))))
+          (Thread/sleep 10)
+          (recur (inc i))))
+      (is (< 0 (count (b/as-map (m/active-cache f))) 10)))))
+
+(deftest footprint-test
+  (testing "Usage is attributed to functions and tags"
+    (let [c (m/create {mc/type mc/caffeine})
+          small (m/memo (fn [x] (m/with-tag-id (str x) :user x)) {mc/id "small"} c)
+          big (m/memo (fn [x] (byte-array 10000)) {mc/id "big"} c)]
+      (dotimes [i 100] (small i))
+      (dotimes [i 10] (big i))
+      (let [{:keys [entries bytes segments tags sample-rate]} (footprint c {:sample 1.0})]
+        (is (= 1.0 sample-rate))
+        (is (= 110 entries))
+        (is (= 100 (get-in segments ["small" :entries])))
+        (is (= 10 (get-in segments ["big" :entries])))
+        (is (< 100000 (get-in segments ["big" :bytes])))
+        (is (< (get-in segments ["small" :bytes]) 100000))
+        (is (= bytes (+ (get-in segments ["small" :bytes]) (get-in segments ["big" :bytes]))))
+        (is (= {:user {:entries 100 :bytes (get-in segments ["small" :bytes])}} tags)))))
+  (testing "Background scans"
+    (let [f (m/memo identity {mc/type mc/caffeine mcc/footprint [10 :ms] mcc/footprint-sample 1.0})]
+      (dotimes [i 10] (f i))
+      (Thread/sleep 50)
+      (is (= 10 (:entries (footprint f)))))))
+
+(deftest quotas-test
+  (testing "Functions are limited to their quota"
+    (let [c (m/create {mc/type mc/caffeine mc/size< 1000 mcc/quotas {:default 20}})
+          f (m/memo identity {mc/id "f" mcc/quota 10} c)
+          g (m/memo identity {mc/id "g"} c)
+          h (m/memo identity {mc/id "h"} c)]
+      (dotimes [i 100] (f i) (g i))
+      (dotimes [i 5] (h i))
+      (let [q (quotas c)]
+        (is (= {:usage 10 :limit 10 :trimmed 90} (q "f")))
+        (is (= {:usage 20 :limit 20 :trimmed 80} (q "g")))
+        (is (= {:usage 5 :limit 20 :trimmed 0} (q "h"))))
+      (is (= 35 (count (b/as-map c))))
+      (testing "the added entry is kept"
+        (is (contains? (m/as-map f) '(99))))
+      (m/memo-clear-cache! c)
+      (is (= 0 (:usage ((quotas c) "f"))))))
+  (testing "Fair share keeps a function from taking over the cache"
+    (let [c (m/create {mc/type mc/caffeine mc/size< 100 mcc/fair-share true})
+          hot (m/memo identity {mc/id "hot"} c)
+          hog (m/memo identity {mc/id "hog"} c)]
+      (dotimes [i 30] (hot i))
+      (dotimes [i 10000] (hog i))
+      (let [q (quotas c)]
+        (is (= 30 (:usage (q "hot"))))
+        (is (<= (:usage (q "hog")) 60))
+        (is (< 9000 (:trimmed (q "hog")))))
+      (is (= 30 (count (m/as-map hot))))))
+  (testing "Quotas need a bounded cache"
+    (is (thrown? clojure.lang.ExceptionInfo (m/create {mc/type mc/caffeine mcc/quotas {:default 20}})))))
+
+(deftest budget-test
+  (testing "Budget moves to the cache that benefits from it"
+    (let [mgr (budget-manager {:budget 1000 :interval nil})
+          big (m/memo identity {mc/type mc/caffeine mc/size< 500 mcc/mrc true mcc/budget mgr mcc/metrics-jmx "big"})
+          small (m/memo identity {mc/type mc/caffeine mc/size< 500 mcc/mrc true mcc/budget mgr mcc/metrics-jmx "small"})
+          rnd (java.util.Random. 0)]
+      (is (= {"big" 500 "small" 500} (budget-limits mgr)))
+      (dotimes [_ 50000]
+        (big (long (Math/floor (Math/pow 5000 (.nextDouble rnd)))))
+        (small (.nextInt rnd 50)))
+      (let [limits (rebalance! mgr)]
+        (is (= 1000 (reduce + (vals limits))))
+        (is (< (limits "small") (limits "big")))
+        (is (= limits (budget-limits mgr))))))
+  (testing "Caches need miss ratio curve"
+    (is (thrown? IllegalArgumentException
+                 (m/memo identity {mc/type mc/caffeine mc/size< 500 mcc/budget (budget-manager {:budget 1000 :interval nil})})))))
+
+(deftest cost-aware-test
+  (testing "Expensive entries weigh less"
+    (let [conf {mc/type mc/caffeine mcc/weight< 20000 mcc/cost-aware [100 :us]}
+          slow (m/memo (fn [x] (Thread/sleep 2) (byte-array 1000)) conf)
+          fast (m/memo (fn [x] (byte-array 1000)) conf)
+          settled (fn [f n]
+                    ;; eviction runs asynchronously
+                    (loop [i 0]
+                      (when (and (< i 100) (< n (count (m/as-map f))))
+                        (Thread/sleep 10)
+                        (recur (inc i))))
+                    (m/as-map f))]
+      (dotimes [i 100] (slow i) (fast i))
+      (let [^memento.caffeine.CaffeineCache_ c (:caffeine-cache (m/active-cache slow))]
+        (is (every? #(<= 2000000 (.getLoadNanos ^EntryMeta %)) (vals (.asMap c)))))
+      (is (= 100 (count (settled slow 100))))
+      (is (every? bytes? (vals (m/as-map slow))))
+      (is (<= (count (settled fast 18)) 18))))
+  (testing "Needs weight<"
+    (is (thrown? clojure.lang.ExceptionInfo
+                 (m/memo identity {mc/type mc/caffeine mc/size< 10 mcc/cost-aware true})))))
+
+(deftest doorkeeper-test
+  (testing "Values are cached on second request"
+    (let [calls (atom 0)
+          f (m/memo (fn [x] (swap! calls inc) x) {mc/type mc/caffeine mcc/doorkeeper true})]
+      (dotimes [i 1000] (f i))
+      (is (= {} (m/as-map f)))
+      (f 1)
+      (is (= {'(1) 1} (m/as-map f)))
+      (f 1)
+      (is (= 1001 @calls))
+      (is (= 1000 (.getRejected (.getDoorkeeper ^memento.caffeine.CaffeineCache_ (:caffeine-cache (m/active-cache f))))))))
+  (testing "Tags of rejected values are not indexed"
+    (let [f (m/memo (fn [x] (m/with-tag-id x :tag x)) :tag {mc/type mc/caffeine mcc/doorkeeper 3})]
+      (is (= 1 (f 1)))
+      (is (= 1 (f 1)))
+      (is (= {} (m/as-map f)))
+      (f 1)
+      (is (= {'(1) 1} (m/as-map f))))))
+
+(deftest l0-test
+  (testing "Hits are served from thread local L0 until invalidation"
+    (let [calls (atom 0)
+          f (m/memo (fn [x] (swap! calls inc) (m/with-tag-id x :tag x)) :tag {mc/type mc/caffeine mcc/l0 true})
+          ^memento.caffeine.CaffeineCache_ c (:caffeine-cache (m/active-cache f))]
+      (is (= 1 (f 1)))
+      (is (= 1 (f 1)))
+      ;; removing directly from the Caffeine map isn't noticed by L0
+      (.clear (.asMap c))
+      (is (= 1 (f 1)))
+      (is (= 1 @calls))
+      (m/memo-clear! f 1)
+      (is (= 1 (f 1)))
+      (is (= 2 @calls))
+      (is (= 1 (f 1)))
+      (m/memo-clear-tag! :tag 1)
+      (is (= 1 (f 1)))
+      (is (= 3 @calls))
+      (is (= 1 (f 1)))
+      (m/memo-add! f {[1] 10})
+      (is (= 10 (f 1)))
+      (is (= 3 @calls))))
+  (testing "L0 entries of caches with expiry age out"
+    (let [f (m/memo identity {mc/type mc/caffeine mc/ttl [1 :h] mcc/l0 4 mcc/l0-max-age [20 :ms]})
+          ^memento.caffeine.CaffeineCache_ c (:caffeine-cache (m/active-cache f))]
+      (is (= 4 (.getSize (.getL0 c))))
+      (f 1)
+      (f 1)
+      (.clear (.asMap c))
+      (Thread/sleep 30)
+      (f 1)
+      (is (= 1 (.size (.asMap c))))))
+  (testing "Sampled L0 hits notice entries removed from the cache"
+    (let [calls (atom 0)
+          f (m/memo (fn [x] (swap! calls inc) x) {mc/type mc/caffeine mcc/l0 true})
+          ^memento.caffeine.CaffeineCache_ c (:caffeine-cache (m/active-cache f))]
+      (f 1)
+      (.clear (.asMap c))
+      (dotimes [_ memento.caffeine.L0Cache/FORWARD_EVERY] (f 1))
+      (is (= 2 @calls))
+      (is (= 1 (.size (.asMap c)))))))
+
+(deftest striped-test
+  (testing "Striped cache behaves as a single cache"
+    (let [calls (atom 0)
+          cache (m/create {mc/type mc/caffeine mcc/stripes 4 mcc/stats true mcc/metrics true})
+          f (m/memo (fn [x] (swap! calls inc) (m/with-tag-id (inc x) :tag (mod x 10))) :tag cache)]
+      (is (= 4 (count (caffeine-caches cache))))
+      (dotimes [i 100] (f i))
+      (dotimes [i 100] (f i))
+      (is (= 100 @calls))
+      (is (< 1 (count (filter #(pos? (.size (.asMap ^memento.caffeine.CaffeineCache_ %))) (caffeine-caches cache))))
+          "keys are spread between stripes")
+      (is (= (into {} (map (fn [i] [[i] (inc i)])) (range 100)) (m/as-map f)))
+      ;; Caffeine stats count getIfPresent lookups
+      (dotimes [i 10] (b/if-cached cache (.segment ^memento.mount.IMountPoint f) (list i)))
+      (is (= 10 (.hitCount (stats cache))))
+      (is (= 100 (:hits (segment-stats f))))
+      (m/memo-clear-tag! :tag 3)
+      (is (= 90 (count (m/as-map f))))
+      (m/memo-clear! f 5)
+      (is (= 89 (count (m/as-map f))))
+      (m/memo-add! f {[5] 100 [200] 201})
+      (is (= 100 (f 5)))
+      (is (= 201 (f 200)))
+      (is (= 91 (count (to-data cache))))
+      (m/memo-clear! f)
+      (is (= {} (m/as-map f)))
+      (load-data cache {[(.getId (.segment ^memento.mount.IMountPoint f)) '(7)] 70})
+      (is (= 70 (f 7)))))
+  (testing "Limits are divided between stripes"
+    (let [cache (m/create {mc/type mc/caffeine mc/size< 100 mcc/stripes 2})]
+      (is (= [50 50] (map #(.getMaximum (.getEviction ^memento.caffeine.CaffeineCache_ %)) (caffeine-caches cache))))))
+  (testing "Stripes must be a power of 2"
+    (is (thrown? clojure.lang.ExceptionInfo (m/create {mc/type mc/caffeine mcc/stripes 3})))))
+
+(defrecord CompressedRecord [n s])
+
+(deftest compress-test
+  (testing "Large values are stored compressed and decoded on hit"
+    (let [big (vec (repeat 2000 "abc"))
+          f (m/memo (fn [x] (if (= x :big) big x)) :tag {mc/type mc/caffeine mcc/compress 1024 mcc/weight< 100000})
+          ^memento.caffeine.CaffeineCache_ c (:caffeine-cache (m/active-cache f))]
+      (is (= big (f :big)))
+      (is (= :small (f :small)))
+      (is (= 1 (count (filter #(instance? memento.base.Compressed %) (vals (.asMap c))))))
+      (is (= 1 (.getCompressed (.getCompressor c))))
+      (is (= big (f :big)))
+      (is (= {[:big] big [:small] :small} (m/as-map f)))
+      (is (< (.getAsLong (.weightedSize (.getEviction c))) (SizeEstimator/estimate big)))))
+  (testing "Values that stay larger than threshold after encoding are compressed"
+    (let [big (apply str (repeat 40000 "0123456789"))
+          f (m/memo (fn [_] big) {mc/type mc/caffeine mcc/compress true})
+          ^memento.caffeine.CaffeineCache_ c (:caffeine-cache (m/active-cache f))]
+      (is (= big (f 1)))
+      (is (instance? memento.base.Compressed (first (vals (.asMap c)))))
+      (is (= big (f 1)))))
+  (testing "Tagged values keep their tags and to-data decodes them"
+    (let [big (apply str (repeat 5000 \x))
+          cache (m/create {mc/type mc/caffeine mcc/compress true})
+          f (m/memo (fn [x] (m/with-tag-id big :tag x)) :tag cache)]
+      (is (= big (f 1)))
+      (m/memo-clear-tag! :tag 1)
+      (is (= big (f 2)))
+      (is (= [big] (map #(EntryMeta/unwrap %) (vals (to-data cache)))))
+      (is (= 1 (.size (.asMap ^memento.caffeine.CaffeineCache_ (:caffeine-cache cache)))))))
+  (testing "Compressed values weigh their size in bytes, kv-weight sees only values stored as they are"
+    (let [big (vec (repeat 2000 "abc"))
+          weighed (atom [])
+          f (m/memo (fn [x] (if (= x :big) big x))
+                    {mc/type mc/caffeine mcc/compress 1024 mcc/weight< 100000
+                     mcc/kv-weight (fn [_ _ v] (swap! weighed conj v) 1)})
+          ^memento.caffeine.CaffeineCache_ c (:caffeine-cache (m/active-cache f))]
+      (is (= big (f :big)))
+      (is (= :small (f :small)))
+      (is (not-any? #(instance? memento.base.Compressed %) @weighed))
+      (is (some #{:small} @weighed))
+      (let [k (first (filter #(= [:big] (.getArgs ^CacheKey %)) (keys (.asMap c))))]
+        (is (= (alength (.getBytes ^memento.base.Compressed (get (.asMap c) k)))
+               (.getAsInt (.weightOf (.getEviction c) k)))))))
+  (testing "Values that can't be encoded are stored as they are"
+    (let [v (vec (repeat 2000 (Object.)))
+          f (m/memo (fn [_] v) {mc/type mc/caffeine mcc/compress 16})]
+      (is (identical? v (f 1)))
+      (is (identical? v (f 1)))
+      (is (= 1 (.getSkipped (.getCompressor ^memento.caffeine.CaffeineCache_ (:caffeine-cache (m/active-cache f))))))))
+  (testing "Records defined at runtime are decoded on hit"
+    (let [v (vec (repeat 500 (->CompressedRecord 1 "x")))
+          f (m/memo (fn [_] v) {mc/type mc/caffeine mcc/compress 512})
+          ^memento.caffeine.CaffeineCache_ c (:caffeine-cache (m/active-cache f))]
+      (is (= v (f 1)))
+      (is (instance? memento.base.Compressed (first (vals (.asMap c)))))
+      (is (= v (f 1)))))
+  (testing "DeflateCodec round trips values"
+    (let [codec (memento.base.DeflateCodec.)]
+      (doseq [v ["text" {:a [1 2 3]} (byte-array [1 2 3])]]
+        (let [d (.decode codec (.encode codec v))]
+          (if (bytes? v) (is (= (seq v) (seq d))) (is (= v d))))))))
@@ -4,7 +4,7 @@
             [memento.config :as mc]
             [memento.caffeine.config :as mcc])
   (:import (java.io IOException)
-           (memento.base EntryMeta ICache)
+           (memento.base EntryMeta ICache LazyCache)
            (memento.caffeine Expiry)
            (memento.mount IMountPoint)))
 
@@ -224,6 +224,26 @@
       (is (= (range 20) (map f (range 20))))
       (is (= (concat (range 20) [0 3 5 6 9 10 12 15 18]) @access-nums)))))
 
+(deftest min-load-time-test
+  (testing "fast loads are not cached"
+    (let [f (memo (fn [x] (when (even? x) (Thread/sleep 10)) x) (assoc inf mc/min-load-time [5 :ms]))]
+      (is (= (range 10) (map f (range 10))))
+      (is (= #{[0] [2] [4] [6] [8]} (set (keys (as-map f)))))))
+  (testing "tagged results keep tags"
+    (let [f (memo (fn [x] (Thread/sleep 10) (with-tag-id x :tag x)) :tag (assoc inf mc/min-load-time [5 :ms]))]
+      (is (= 1 (f 1)))
+      (is (= {[1] 1} (as-map f)))
+      (memo-clear-tag! :tag 1)
+      (is (= {} (as-map f)))))
+  (testing "target fraction of slowest loads is cached"
+    (let [f (memo (fn [x] (when (zero? (mod x 4)) (Thread/sleep 2)) x)
+                  (assoc inf mc/min-load-time {:fraction 0.25 :min [1 :us]}))]
+      (dotimes [i 1024] (f i))
+      ;; the threshold is min until enough loads are recorded
+      (let [cached (filter #(<= 512 (first %)) (keys (as-map f)))]
+        (is (every? #(zero? (mod (first %) 4)) cached))
+        (is (= 128 (count cached)))))))
+
 (deftest get-tags-test
   (testing "tags get returned"
     (let [cached (memo identity :person)
@@ -250,6 +270,38 @@
       (is (= [10] (f 10)))
       (is (= [10 20 10 30 30] (f 30))))))
 
+(deftest no-populate-test
+  (testing "existing entries are read, loaded values are not cached"
+    (let [calls (atom 0)
+          f (memo (fn [x] (swap! calls inc) x) (size< 10))]
+      (f 1)
+      (with-no-populate
+        (is (= 1 (f 1)))
+        (is (= 1 @calls))
+        (dotimes [i 100] (f (+ 2 (mod i 50))))
+        (is (= 101 @calls)))
+      (is (= {[1] 1} (as-map f)))))
+  (testing "loaded values are cached in scope local layer"
+    (let [calls (atom 0)
+          f (memo (fn [x] (swap! calls inc) x) (size< 10))]
+      (f 1)
+      (with-scope-layer
+        (dotimes [i 100] (f (mod i 50)))
+        (is (= 50 @calls))
+        (is (= {[1] 1} (as-map f))))
+      (is (= {[1] 1} (as-map f)))
+      (f 2)
+      (is (= 51 @calls))))
+  (testing "multi tier caches"
+    (let [local (create inf)
+          upstream (create inf)
+          f (memo identity {} (tiered local upstream))
+          g (memo identity {} (chain [local upstream]))]
+      (with-no-populate
+        (f 1)
+        (g 2))
+      (is (= {} (.asMap ^ICache local) (.asMap ^ICache upstream))))))
+
 (deftest update-tag-caches-test
   (testing "changes cache root binding"
     (let [access-nums (atom 0)
@@ -279,6 +331,20 @@
            (-> 1 (with-tag-id :person 55))))
     (is (= (EntryMeta. 1 true #{[:person 55] [:account 6]})
            (-> 1 (with-tag-id :person 55) (with-tag-id :account 6) do-not-cache))))
+  (testing "tag idents are stored compactly and without duplicates"
+    (let [^EntryMeta e (-> 1 (with-tag-id :person 55) (with-tag-id :person 55))]
+      (is (= 1 (.identCount e)))
+      (is (= [:person 55] (.ident e 0)))
+      (.addTagIdent e [:account 6])
+      (.addTagIdent e [:account 7])
+      (.addTagIdent e [:account 6])
+      (is (= 3 (.identCount e)))
+      (is (= #{[:person 55] [:account 6] [:account 7]} (.getTagIdents e)))
+      (is (= 0 (.identCount ^EntryMeta (do-not-cache 1))))
+      (let [^EntryMeta many (reduce #(with-tag-id %1 :tag %2) 1 (concat (range 100) (range 100)))]
+        (is (= 100 (.identCount many)))
+        (is (= (set (map #(vector :tag %) (range 100))) (.getTagIdents many))))
+      (is (= 20 (.identCount (EntryMeta. 1 false (set (range 20))))))))
   (testing "tagged eviction"
     (let [f (memo (fn [x] (with-tag-id x :tag x)) :tag inf)]
       (is (= {} (as-map f)))
@@ -380,6 +446,33 @@
               (m/memo-clear! c))
       (is (= [2 1] (c))))))
 
+(deftest lazy-cache-test
+  (testing "Cache is created on first use, seed is queued"
+    (let [access-count (atom 0)
+          c (m/memo (fn [x] (swap! access-count inc) x)
+                    (assoc inf mc/lazy true mc/seed {[1] 100}))
+          cache (m/active-cache c)]
+      (is (instance? LazyCache cache))
+      (is (= false (.isRealized ^LazyCache cache)))
+      (is (= inf (dissoc (.conf ^ICache cache) mc/lazy)))
+      (is (= 100 (c 1)))
+      (is (= true (.isRealized ^LazyCache cache)))
+      (is (= 2 (c 2)))
+      (is (= 2 (c 2)))
+      (is (= 1 @access-count))
+      (is (= {[1] 100 [2] 2} (as-map c)))))
+  (testing "Operations on empty lazy cache don't instantiate it"
+    (let [c (m/memo identity (assoc inf mc/lazy true))
+          cache (m/active-cache c)]
+      (memo-clear! c)
+      (memo-clear! c 1)
+      (m/memo-clear-cache! cache)
+      (is (= {} (as-map c)))
+      (is (= false (.isRealized ^LazyCache cache)))))
+  (testing "Lazy setting doesn't apply to none cache"
+    (binding [mc/*lazy* true]
+      (is (m/none-cache? (m/create {}))))))
+
 (deftest ret-ex-fn-test
   (testing "returns transformed-exception"
     (let [e (RuntimeException.)
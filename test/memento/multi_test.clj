@@ -2,8 +2,13 @@
   (:require [memento.core :as m]
             [memento.base :as b]
             [memento.config :as mc]
+            [memento.multi :as mm]
+            [memento.caffeine.config :as mcc]
             [clojure.test :refer :all])
-  (:import (memento.base CacheKey)))
+  (:import (memento.base CacheKey ICache)
+           (memento.caffeine CaffeineCache_ KeyFilter)
+           (memento.mount IMountPoint)
+           (memento.multi ChainCache)))
 
 (def inf-cache {mc/type mc/caffeine})
 
@@ -65,3 +70,225 @@
       (is (= {} (as-map up)))
       (is (= 2 @access-count))
       (is (= 0 @upstream-access-count)))))
+
+(deftest chain-test
+  (testing "Values are written to the tiers that missed"
+    (let [access-count (atom 0)
+          c1 (m/create inf-cache)
+          c2 (m/create inf-cache)
+          c3 (m/create inf-cache)
+          chain (m/create (m/chain [c1 {::mm/tier c2 ::mm/write :sync} c3]))
+          f (m/memo (fn [x] (swap! access-count inc) (inc x)) {} chain)
+          _ (m/memo-add! f {[2] 3})]
+      (is (= 1 (f 0)))
+      (is (= 1 (f 0)))
+      (is (= 3 (f 2)))
+      (mm/flush-writes! chain)
+      (is (= 1 @access-count))
+      (is (= {[0] 1 [2] 3} (as-map c1)))
+      (is (= {[0] 1} (as-map c2)))
+      (is (= {[0] 1} (as-map c3)))))
+  (testing "Values are read from slower tiers"
+    (let [access-count (atom 0)
+          c2 (m/create inf-cache)
+          c3 (m/create inf-cache)
+          c1 (m/create inf-cache)
+          chain (m/create (m/chain [c1 c2 {::mm/tier c3 ::mm/read false}]))
+          f (m/memo (fn [x] (swap! access-count inc) (inc x)) {} chain)]
+      (b/put-all c2 (.segment ^IMountPoint f) {[5] 10})
+      (is (= 10 (f 5)))
+      (is (= 2 (f 1)))
+      (mm/flush-writes! chain)
+      (is (= 1 @access-count))
+      (is (= {[5] 10 [1] 2} (as-map c1)))
+      (is (= {[5] 10 [1] 2} (as-map c2)))
+      (is (= {[1] 2} (as-map c3)))
+      (m/memo-clear! f 1)
+      (is (= {} (as-map c3)))))
+  (testing "Full queue writes on the caller thread"
+    (let [c2 (m/create inf-cache)
+          chain (m/create (m/chain [inf-cache c2] {::mm/queue-size 1 ::mm/batch-size 1}))
+          f (m/memo inc {} chain)]
+      (dotimes [i 100] (f i))
+      (mm/flush-writes! chain)
+      (is (= 100 (count (as-map c2))))))
+  (testing "Invalidation keeps pending writes of other entries"
+    (let [c2 (m/create inf-cache)
+          chain (m/create (m/chain [inf-cache c2]))
+          f (m/memo inc {} chain)]
+      (dotimes [i 100] (f i))
+      (m/memo-clear! f 1)
+      (mm/flush-writes! chain)
+      (is (= 99 (count (as-map c2))))
+      (is (not (contains? (as-map c2) [1])))))
+  (testing "Values loaded before an invalidation are not written after it"
+    (let [c2 (m/create inf-cache)
+          chain (m/create (m/chain [inf-cache c2]))
+          loading (promise)
+          release (promise)
+          calls (atom 0)
+          f (m/memo (fn [x]
+                      (if (= 1 (swap! calls inc))
+                        ;; spins, as invalidation interrupts the loading thread
+                        (do (deliver loading true) (while (not (realized? release)) (Thread/onSpinWait)) :stale)
+                        (m/do-not-cache :fresh)))
+                    {} chain)
+          ret (future (f 1))]
+      @loading
+      (m/memo-clear! f 1)
+      (deliver release true)
+      (is (= :fresh @ret))
+      (mm/flush-writes! chain)
+      (is (= {} (as-map c2)))
+      (is (= 1 (.stale (.getWriteBehind ^ChainCache chain))))))
+  (testing "Unknown write policy is rejected"
+    (is (thrown-with-msg? clojure.lang.ExceptionInfo #":later"
+                          (m/create (m/chain [inf-cache {::mm/tier inf-cache ::mm/write :later}]))))))
+
+(deftest key-computed-once-test
+  (testing "Multi caches apply key-fn once per lookup"
+    (let [key-fn-count (atom 0)
+          caller (Thread/currentThread)
+          ;; asynchronous writes to slower chain tiers apply key-fn on the write behind thread, those aren't lookups
+          key-fn (fn [args] (when (identical? caller (Thread/currentThread)) (swap! key-fn-count inc)) args)]
+      (are [conf calls]
+        (let [f (m/memo inc {mc/key-fn key-fn} conf)]
+          (reset! key-fn-count 0)
+          (f 1)
+          (f 1)
+          (= calls @key-fn-count))
+        (m/tiered inf-cache inf-cache) 2
+        (m/consulting inf-cache inf-cache) 2
+        (m/daisy inf-cache inf-cache) 2
+        (m/tiered inf-cache (m/tiered inf-cache inf-cache)) 2
+        (m/chain [inf-cache inf-cache inf-cache]) 2))))
+
+(deftest key-filter-test
+  (testing "Upstream with key filter is not probed for missing keys"
+    (let [up (m/create (assoc inf-cache mcc/key-filter 1000))
+          f (m/memo inc {} (m/consulting inf-cache up))
+          segment (.segment ^IMountPoint f)
+          might-contain? #(b/might-contain? up segment (list %) (.cacheKey segment (list %)))]
+      (b/put-all up segment {[1] 10 [2] 20})
+      (is (might-contain? 1))
+      (is (might-contain? 2))
+      (is (< (count (filter might-contain? (range 3 1000))) 50))
+      (is (= 10 (f 1)))
+      (is (= 4 (f 3)))
+      (b/invalidate up segment '(2))
+      (.rebuild ^KeyFilter (.getKeyFilter ^CaffeineCache_ (:caffeine-cache up)))
+      (is (not (might-contain? 2))))))
+
+(defn slow-cache
+  "Wraps cache, delaying upstream operations by delay-ms and throwing when fail? is true."
+  [^ICache cache delay-ms fail?]
+  (let [slow (fn [] (Thread/sleep (long @delay-ms)) (when @fail? (throw (ex-info "Upstream down" {}))))]
+    (reify ICache
+      (conf [_] (.conf cache))
+      (cached [_ segment args] (slow) (.cached cache segment args))
+      (ifCached [_ segment args] (slow) (.ifCached cache segment args))
+      (invalidate [this segment] (.invalidate cache segment) this)
+      (invalidate [this segment args] (.invalidate cache segment args) this)
+      (invalidateAll [this] (.invalidateAll cache) this)
+      (invalidateIds [this ids] (.invalidateIds cache ids) this)
+      (addEntries [this segment args-to-vals] (.addEntries cache segment args-to-vals) this)
+      (asMap [_] (.asMap cache))
+      (asMap [_ segment] (.asMap cache segment)))))
+
+(deftest hedge-test
+  (testing "Slow upstream is hedged and the breaker opens"
+    (let [delay-ms (atom 0)
+          fail? (atom false)
+          up (slow-cache (m/create inf-cache) delay-ms fail?)
+          c (m/create (m/consulting inf-cache up {::mm/hedge {:max-delay [50 :ms] :failures 2 :cool-down [300 :ms]}}))
+          f (m/memo inc {} c)]
+      (b/put-all up (.segment ^IMountPoint f) {[1] 10})
+      (is (= 10 (f 1)))
+      (reset! delay-ms 1000)
+      (let [start (System/nanoTime)]
+        (is (= 3 (f 2)))
+        (is (= 4 (f 3)))
+        (is (< (- (System/nanoTime) start) 500000000)))
+      (is (:open? (mm/upstream-stats c)))
+      (is (= 5 (f 4)))
+      (is (= {:calls 3 :hits 1 :hedged 2 :errors 0 :skipped 1 :trips 1}
+             (select-keys (mm/upstream-stats c) [:calls :hits :hedged :errors :skipped :trips])))
+      (reset! delay-ms 0)
+      (Thread/sleep 350)
+      (is (= 6 (f 5)))
+      (is (not (:open? (mm/upstream-stats c))))))
+  (testing "Failing upstream of a tiered cache is bypassed"
+    (let [fail? (atom true)
+          up (slow-cache (m/create inf-cache) (atom 0) fail?)
+          c (m/create (m/tiered inf-cache up {::mm/hedge true}))
+          f (m/memo inc {} c)]
+      (is (= 2 (f 1)))
+      (is (= 1 (:errors (mm/upstream-stats c))))
+      (reset! fail? false)
+      (is (= 3 (f 2)))
+      (is (= {[2] 3} (as-map up)))))
+  (testing "Slow upstream loads are hedged, the function runs once and upstream gets its result"
+    (let [calls (atom 0)
+          inner (m/create inf-cache)
+          up (slow-cache inner (atom 300) (atom false))
+          c (m/create (m/tiered inf-cache up {::mm/hedge {:max-delay [10 :ms]}}))
+          f (m/memo (fn [x] (swap! calls inc) (inc x)) {} c)
+          start (System/nanoTime)]
+      (is (= 2 (f 1)))
+      (is (< (- (System/nanoTime) start) 200000000))
+      (is (= {:calls 1 :hits 0 :hedged 1 :errors 0}
+             (select-keys (mm/upstream-stats c) [:calls :hits :hedged :errors])))
+      (Thread/sleep 500)
+      (is (= 1 @calls))
+      (is (= {[1] 2} (as-map inner)))))
+  (testing "Upstream answering during local computation wins"
+    (let [up (m/create inf-cache)
+          c (m/create (m/consulting inf-cache (slow-cache up (atom 100) (atom false)) {::mm/hedge {:max-delay [10 :ms]}}))
+          f (m/memo (fn [x] (Thread/sleep 1000) (inc x)) {} c)
+          start (System/nanoTime)]
+      (b/put-all up (.segment ^IMountPoint f) {[1] 10})
+      (is (= 10 (f 1)))
+      (is (< (- (System/nanoTime) start) 500000000))
+      (is (= {:calls 1 :hits 1 :hedged 1} (select-keys (mm/upstream-stats c) [:calls :hits :hedged])))))
+  (testing "Exceptions of the function after an upstream error don't count as upstream errors"
+    (let [c (m/create (m/tiered inf-cache (slow-cache (m/create inf-cache) (atom 0) (atom true)) {::mm/hedge {:failures 1}}))
+          f (m/memo (fn [x] (throw (ex-info "Boom" {:x x}))) {} c)]
+      (is (thrown-with-msg? clojure.lang.ExceptionInfo #"Boom" (f 1)))
+      (is (= 0 (:errors (mm/upstream-stats c))))
+      (is (not (:open? (mm/upstream-stats c))))))
+  (testing "Exceptions of the function are rethrown and don't open the breaker"
+    (let [calls (atom 0)
+          c (m/create (m/tiered inf-cache inf-cache {::mm/hedge {:failures 1}}))
+          f (m/memo (fn [x] (swap! calls inc) (throw (ex-info "Boom" {:x x}))) {} c)]
+      (is (thrown-with-msg? clojure.lang.ExceptionInfo #"Boom" (f 1)))
+      (is (= 1 @calls))
+      (is (= 0 (:errors (mm/upstream-stats c))))
+      (is (not (:open? (mm/upstream-stats c)))))))
+
+(deftest promotion-test
+  (testing "Upstream hits are copied into local cache on n-th hit"
+    (let [c (m/create (m/tiered inf-cache inf-cache {::mm/promote 2}))
+          f (m/memo inc {} c)
+          local (mm/delegate c)]
+      (is (= 2 (f 1)))
+      (is (= {} (as-map local)))
+      (is (= 2 (f 1)))
+      (is (= {[1] 2} (as-map local)))
+      (is (= 3 (f 2)))
+      (is (= {[1] 2} (as-map local)))
+      (is (= {:promoted 1 :rejected 2} (mm/promotion-stats c)))))
+  (testing "Heavy upstream values are not promoted"
+    (let [up (m/create inf-cache)
+          c (m/create (m/consulting inf-cache up {::mm/promote {:hits 1
+                                                               :max-weight 10
+                                                               :weigher (fn [_ _ v] (count v))}}))
+          f (m/memo #(vec (range %)) {} c)
+          local (mm/delegate c)]
+      (b/put-all up (.segment ^IMountPoint f) {[5] (vec (range 5)) [50] (vec (range 50))})
+      (is (= (range 5) (f 5)))
+      (is (= (range 50) (f 50)))
+      (is (= (range 50) (f 50)))
+      (is (= {[5] (vec (range 5))} (as-map local)))
+      (is (= (range 3) (f 3)))
+      (is (= #{[5] [3]} (set (keys (as-map local)))))
+      (is (nil? (mm/upstream-stats c))))))
@@ -1,7 +1,8 @@
 (ns memento.ns-scan-test
   (:require [clojure.test :refer :all]
             [memento.core :as m]
-            [memento.ns-scan :as ns-scan]))
+            [memento.ns-scan :as ns-scan])
+  (:import (memento.base LazyCache)))
 
 (defn x
   {::m/cache :x}
@@ -20,3 +21,11 @@
     (let [temp x
           _ (ns-scan/attach-caches)]
       (is (not= x temp)))))
+
+(deftest test-ns-scan-parallel-lazy
+  (testing "should attach lazy caches in parallel"
+    (is (= [#'x #'y] (ns-scan/attach-caches ns-scan/default-blacklist {:parallel true :lazy true})))
+    (is (= true (m/memoized? x)))
+    (is (= false (.isRealized ^LazyCache (m/active-cache y))))
+    (is (= 1 (y)))
+    (is (= true (.isRealized ^LazyCache (m/active-cache y))))))
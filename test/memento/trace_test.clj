@@ -0,0 +1,83 @@
+(ns memento.trace-test
+  (:require [clojure.test :refer :all]
+            [memento.core :as m]
+            [memento.config :as mc]
+            [memento.caffeine.config :as mcc]
+            [memento.simulator :as sim]
+            [memento.trace :as trace]))
+
+(deftest record-dump-read-test
+  (testing "Accesses are recorded, dumped and read back"
+    (let [f (m/memo inc {mc/type mc/caffeine mc/id "f"})
+          file (java.io.File/createTempFile "memento" ".trace")]
+      (try
+        (f 0)
+        (trace/start! f {:capacity 4 :weigher (fn [_ _ v] (* 10 v))})
+        (f 1)
+        (f 1)
+        (f 2)
+        (f 2)
+        (f 3)
+        (is (= 5 (.recorded (trace/stop! f))))
+        (f 4)
+        (is (nil? (trace/recorder f)))
+        (trace/dump! (trace/start! f) file)
+        (is (= [] (trace/read-trace file)))
+        (trace/dump! (let [rec (trace/start! f {:weigher (fn [_ _ v] (* 10 v))})]
+                       (f 5) (f 5) (f 6)
+                       rec)
+                     file)
+        (let [t (trace/read-trace file)]
+          (is (= ["f" "f" "f"] (map :segment t)))
+          (is (= [60 0 70] (map :weight t)))
+          (is (= [true false true] (map (comp some? :load-ns) t)))
+          (is (apply <= (map :time t))))
+        (finally
+          (trace/stop! f)
+          (.delete file))))))
+
+(deftest striped-trace-test
+  (testing "Accesses of all stripes are recorded into one trace"
+    (let [f (m/memo inc {mc/type mc/caffeine mcc/stripes 4})
+          rec (trace/start! f)]
+      (is (identical? rec (trace/recorder f)))
+      (dotimes [i 100] (f i) (f i))
+      (is (identical? rec (trace/stop! f)))
+      (is (nil? (trace/recorder f)))
+      (let [file (java.io.File/createTempFile "memento" ".trace")]
+        (try
+          (trace/dump! rec file)
+          (let [t (trace/read-trace file)]
+            (is (= 200 (count t)))
+            (is (= 100 (count (filter :load-ns t)))))
+          (finally (.delete file)))))))
+
+(deftest simulator-test
+  (testing "Bigger caches have better hit ratio on Zipf workload"
+    (let [t (sim/zipf-trace {:keys 1000 :events 20000})
+          {:keys [small big]} (sim/compare-configs t {:small {mc/size< 10}
+                                                      :big {mc/size< 500}})]
+      (is (< (:hit-ratio small) (:hit-ratio big)))
+      (is (= 20000 (+ (:hits big) (:misses big))))
+      (is (= (* 1000000 (:hits big)) (:load-time-saved-ns big)))
+      (is (<= (-> big :tiers first :max-weight) 500))))
+  (testing "Weight bounded caches are simulated with trace weights"
+    (let [t (sim/zipf-trace {:keys 1000 :events 10000 :weight 10})
+          {:keys [light heavy]} (sim/compare-configs t {:light {mcc/weight< 5000}
+                                                        :heavy {mcc/weight< 500}})]
+      (is (< (:hit-ratio heavy) (:hit-ratio light)))
+      (is (<= (-> heavy :tiers first :max-weight) 500))))
+  (testing "Looping scan hits at most as many keys as the cache holds"
+    (is (<= (:hit-ratio (sim/simulate (sim/scan-trace {:keys 100 :events 1000}) {mc/size< 50})) 0.5)))
+  (testing "ttl is simulated with trace time"
+    (is (= 1 (:hits (sim/simulate [{:segment "a" :key 1 :time 0 :load-ns 1}
+                                   {:segment "a" :key 1 :time 1000000 :load-ns 1}
+                                   {:segment "a" :key 1 :time 5000000000 :load-ns 1}]
+                                  {mc/ttl [1 :s]})))))
+  (testing "Tiered configuration reports tier hits"
+    (let [t (sim/merge-traces (sim/zipf-trace {:keys 1000 :events 10000})
+                              (sim/scan-trace {:keys 2000 :events 10000}))
+          r (sim/simulate t (m/tiered {mc/size< 10} {mc/size< 5000}))]
+      (is (= 20000 (count t)))
+      (is (= 2 (count (:tiers r))))
+      (is (pos? (-> r :tiers second :hits))))))
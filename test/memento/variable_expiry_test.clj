@@ -351,3 +351,31 @@
       (reset! call-count 0)
       (c :short)
       (is (= 1 @call-count)))))
+
+;; ---------------------------------------------------------------------------
+;; Expiry is evaluated when the entry is stored
+;; ---------------------------------------------------------------------------
+
+(deftest write-time-expiry-test
+  (testing "Expiry is called on writes, not on reads"
+    (let [calls (atom 0)
+          c (m/memo identity
+                    (assoc inf mcc/expiry
+                           (reify Expiry
+                             (ttl [_ _ _k _v] (swap! calls inc) nil)
+                             (fade [_ _ _k _v] (swap! calls inc) [1 :s]))))]
+      (c 1)
+      (let [n @calls]
+        (dotimes [_ 100] (c 1))
+        (is (= n @calls)))
+      (Thread/sleep 600)
+      (c 1)
+      (Thread/sleep 600)
+      (is (= {'(1) 1} (m/as-map c)) "reads still extend fade")
+      (Thread/sleep 1100)
+      (is (= {} (m/as-map c)))))
+  (testing "Values stored with memo-add! get their expiry"
+    (let [c (m/memo identity (assoc inf mcc/expiry mcc/meta-expiry))]
+      (m/memo-add! c {[1] (with-meta [1] {mc/ttl [500 :ms]}) [2] [2]})
+      (Thread/sleep 600)
+      (is (= {'(2) [2]} (m/as-map c))))))